@@ -0,0 +1,63 @@
+package logic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Benchmark
+ *  Drawing in a box (brush stamps) and how much of it is filled, for each brush size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BoxBench {
+    private static final int BOX_SIZE = 75;
+
+    @Param({"1", "5", "10", "20"})
+    public int brushSize;
+
+    private Box box;
+    private int position = 0;
+    private int stamps = 0;
+
+    @Setup
+    public void setUp() {
+        box = new Grid(8, BOX_SIZE).getBox(3, 4);
+    }
+
+    //next stamp somewhere else in the box, cleared once in a while so it doesn't stay full
+    private void stamp() {
+        if((stamps++ & 255) == 0) {
+            box.clearBox();
+        }
+        position = (position + 37) % (BOX_SIZE * BOX_SIZE);
+        box.setUnit(position / BOX_SIZE - brushSize / 2, position % BOX_SIZE - brushSize / 2, brushSize);
+    }
+
+    @Benchmark
+    public Box setUnit() {
+        stamp();
+        return box;
+    }
+
+    //what the UI checks after every stamp
+    @Benchmark
+    public double setUnitAndPercentage() {
+        stamp();
+        return box.getPercentageFilled();
+    }
+}
@@ -0,0 +1,356 @@
+package logic;
+
+import javafx.util.Pair;
+import networking.Message;
+import networking.MessageCodec;
+import networking.PeerAddress;
+import networking.Transport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Benchmark
+ *  Headless load on a server: N simulated players send what real players send
+ *  (connect, lock a box, draw in it, capture or release it, pings) to a ServerThread of this process
+ *  through its queues, everything it sends back is encoded like the networking would
+ *  Reports server throughput, lock grant latency and the cost of broadcasting to everyone
+ *  Usage: LoadGenerator [player counts, default 4,16,64,255]
+ *  Rates: -Dduration=10 (s per player count), -DlockRate=1 (locks per player per s), -DdrawTime=300 (ms),
+ *  -DstrokeRate=60 (drawings per player per s while drawing), -DcaptureRate=0.2 (captured, the rest is released),
+ *  -DpingRate=2 (per player per s), -DgridSize=0 (0 = about 4 boxes per player)
+ *  Stroke fan-out of the server: -DstrokeEcho, -DstrokeThin, -DstrokeRadius (see Game)
+ */
+public class LoadGenerator {
+    private static final long DURATION = Long.getLong("duration", 10);
+    private static final double LOCK_RATE = Double.parseDouble(System.getProperty("lockRate", "1"));
+    private static final long DRAW_TIME = Long.getLong("drawTime", 300);
+    private static final double STROKE_RATE = Double.parseDouble(System.getProperty("strokeRate", "60"));
+    private static final double CAPTURE_RATE = Double.parseDouble(System.getProperty("captureRate", "0.2"));
+    private static final double PING_RATE = Double.parseDouble(System.getProperty("pingRate", "2"));
+    private static final int GRID_SIZE = Integer.getInteger("gridSize", 0);
+
+    //a lock request not answered by then is given up (ns)
+    private static final long LOCK_TIMEOUT = 1000000000L;
+    private static final int MAX_PLAYERS = 255;
+
+    //what a simulated player is doing
+    private static final int IDLE = 0;
+    private static final int LOCKING = 1;
+    private static final int DRAWING = 2;
+
+    private final int playerCount;
+    private final int gridSize;
+    private final int boxSize;
+    private final Random random = new Random(431);
+
+    //server under load and its queues
+    private final MessageQueue<Message> recvQueue = new MessageQueue<>();
+    private final MessageQueue<Message> sendQueue = new MessageQueue<>();
+    private final Vector<Pair<byte[], String>> players = new Vector<>();
+    private ServerThread server;
+    private volatile boolean isRunning = true;
+
+    //owner of each box as seen by the players: 0 = free, p = locked by p, -p = captured by p
+    private final AtomicIntegerArray owners;
+
+    //state of each player (by ID), the box it's after and when it asked for it (nanoTime)
+    private final int[] state;
+    private final AtomicIntegerArray box;
+    private final long[] lockTime;
+    private final long[] nextLock, nextStroke, nextPing, drawEnd;
+    private final AtomicIntegerArray granted;
+    private final AtomicIntegerArray lost;
+
+    //results
+    private final LatencyHistogram grantLatency = new LatencyHistogram();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private long receivedMessages = 0;
+    private long receivedBytes = 0;
+    private final long[] playerBytes;
+    private long locks = 0, timeouts = 0, lostLocks = 0, captures = 0, releases = 0;
+
+    //constructor
+    private LoadGenerator(int playerCount) {
+        this.playerCount = playerCount;
+        gridSize = GRID_SIZE > 0 ? GRID_SIZE : Math.max(10, (int) Math.ceil(Math.sqrt(4.0 * playerCount)));
+        boxSize = Math.max(600 / gridSize, 1);
+        owners = new AtomicIntegerArray(gridSize * gridSize);
+        state = new int[playerCount + 1];
+        box = new AtomicIntegerArray(playerCount + 1);
+        lockTime = new long[playerCount + 1];
+        nextLock = new long[playerCount + 1];
+        nextStroke = new long[playerCount + 1];
+        nextPing = new long[playerCount + 1];
+        drawEnd = new long[playerCount + 1];
+        granted = new AtomicIntegerArray(playerCount + 1);
+        lost = new AtomicIntegerArray(playerCount + 1);
+        playerBytes = new long[playerCount + 1];
+    }
+
+    public static void main(String[] args) throws Exception {
+        String counts = args.length > 0 ? args[0] : "4,16,64,255";
+        System.out.println(String.format("%d s per run, %.1f locks/s, %d ms drawing at %.0f strokes/s, %.0f%% captured, %.1f pings/s",
+                DURATION, LOCK_RATE, DRAW_TIME, STROKE_RATE, CAPTURE_RATE * 100, PING_RATE));
+        for(String count: counts.split(",")) {
+            int playerCount = Integer.parseInt(count.trim());
+            if(playerCount < 1 || playerCount > MAX_PLAYERS) {
+                System.out.println("Skipped " + playerCount + " players (1 to " + MAX_PLAYERS + ")");
+                continue;
+            }
+            new LoadGenerator(playerCount).run();
+        }
+    }
+
+    //run the server with every player for DURATION seconds and print the results
+    private void run() throws Exception {
+        server = new ServerThread(recvQueue, sendQueue, new MessageQueue<>(), players, null);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.call();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "server");
+        Thread receiveThread = new Thread(this::receive, "players-receive");
+        serverThread.start();
+        receiveThread.start();
+
+        //everyone connects, then the host starts the game (same text as the lobby sends)
+        String start = "5#" + gridSize + "#50#" + System.currentTimeMillis();
+        for(int i = 1; i <= playerCount; i++) {
+            send(i, new Message(Message.TO_SERVER, Message.CONNECT, "player" + i));
+            start += "#10#0#" + (byte) (i >> 8) + "#" + (byte) i + "#" + Transport.PORT + "#player" + i + "#" + i;
+        }
+        send(1, new Message(Message.TO_SERVER, Message.START_GAME, start));
+
+        //players don't all start at the same time
+        long begin = System.nanoTime();
+        for(int i = 1; i <= playerCount; i++) {
+            nextLock[i] = begin + interval(LOCK_RATE);
+            nextPing[i] = begin + interval(PING_RATE);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuStart = threads.getThreadCpuTime(serverThread.getId());
+        long end = begin + DURATION * 1000000000L;
+        long now = begin;
+        while(now < end) {
+            for(int i = 1; i <= playerCount; i++) {
+                step(i, now);
+            }
+            Thread.sleep(1);
+            now = System.nanoTime();
+        }
+        long cpu = threads.getThreadCpuTime(serverThread.getId()) - cpuStart;
+        long elapsed = System.nanoTime() - begin;
+
+        server.stopThread();
+        serverThread.join();
+        isRunning = false;
+        receiveThread.join();
+        report(elapsed, cpu);
+    }
+
+    //what a player does at this time
+    private void step(int player, long now) {
+        if(now >= nextPing[player]) {
+            Message ping = new Message(Message.TO_SERVER, Message.PING);
+            ping.setTime(now);
+            send(player, ping);
+            nextPing[player] = now + interval(PING_RATE);
+        }
+
+        switch (state[player]) {
+            case IDLE:
+                if(now >= nextLock[player]) {
+                    lock(player, now);
+                }
+                break;
+            case LOCKING:
+                if(granted.getAndSet(player, 0) == 1) {
+                    state[player] = DRAWING;
+                    drawEnd[player] = now + DRAW_TIME * 1000000;
+                    nextStroke[player] = now;
+                } else if(lost.getAndSet(player, 0) == 1) {
+                    lostLocks++;
+                    idle(player, now);
+                } else if(now - lockTime[player] > LOCK_TIMEOUT) {
+                    timeouts++;
+                    idle(player, now);
+                }
+                break;
+            case DRAWING:
+                int x = box.get(player) / gridSize;
+                int y = box.get(player) % gridSize;
+                if(now >= drawEnd[player]) {
+                    //only capture while plenty of boxes are left, so the game doesn't end during the run
+                    boolean capture = random.nextDouble() < CAPTURE_RATE && freeBoxes() > 2 * playerCount;
+                    int type = capture ? Message.CAPTURE_SUCCESS : Message.CAPTURE_FAILURE;
+                    if(capture) {
+                        captures++;
+                    } else {
+                        releases++;
+                    }
+                    send(player, new Message(Message.TO_SERVER, type, x, y, player));
+                    idle(player, now);
+                } else {
+                    while(nextStroke[player] <= now) {
+                        int posX = x * boxSize + random.nextInt(boxSize);
+                        int posY = y * boxSize + random.nextInt(boxSize);
+                        send(player, new Message(Message.TO_SERVER, Message.UPDATE, posX, posY, player));
+                        nextStroke[player] += (long) (1000000000L / STROKE_RATE);
+                    }
+                }
+                break;
+        }
+    }
+
+    //ask for a box that looks free (a few tries, then wait for the next time)
+    private void lock(int player, long now) {
+        for(int i = 0; i < 8; i++) {
+            int id = random.nextInt(gridSize * gridSize);
+            if(owners.get(id) == 0) {
+                box.set(player, id);
+                lockTime[player] = now;
+                granted.set(player, 0);
+                lost.set(player, 0);
+                state[player] = LOCKING;
+                locks++;
+
+                Message lock = new Message(Message.TO_SERVER, Message.LOCK_BOX, id / gridSize, id % gridSize, player);
+                lock.setTime(now);
+                lock.setTimeError(500000);
+                send(player, lock);
+                return;
+            }
+        }
+        nextLock[player] = now + interval(LOCK_RATE);
+    }
+
+    private void idle(int player, long now) {
+        state[player] = IDLE;
+        nextLock[player] = now + interval(LOCK_RATE);
+    }
+
+    //boxes nobody locked or captured
+    private int freeBoxes() {
+        int free = 0;
+        for(int i = 0; i < owners.length(); i++) {
+            if(owners.get(i) == 0) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    //message from a player to the server
+    private void send(int player, Message message) {
+        message.setAddress(address(player));
+        recvQueue.produce(message);
+        sentMessages.incrementAndGet();
+    }
+
+    //everything the server sends: encoded like on the wire, then seen by the player it's for
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_SIZE);
+        while(isRunning || !sendQueue.isEmpty()) {
+            Message message = sendQueue.poll(10);
+            if(message == null) {
+                continue;
+            }
+            buffer.clear();
+            MessageCodec.encode(message, buffer);
+            receivedBytes += buffer.position();
+            receivedMessages++;
+
+            byte[] address = message.getAddress();
+            int player = ((address[2] & 0xFF) << 8) | (address[3] & 0xFF);
+            if(player <= playerCount) {
+                playerBytes[player] += buffer.position();
+            }
+            int id = message.getX() * gridSize + message.getY();
+            switch (message.getType()) {
+                case Message.LOCK_BOX:
+                    owners.set(id, message.getPlayer());
+                    if(player == message.getPlayer()) {
+                        if(box.get(player) == id) {
+                            granted.set(player, 1);
+                            grantLatency.record(System.nanoTime() - message.getTime());
+                        }
+                    } else if(box.get(player) == id) {
+                        lost.set(player, 1);
+                    }
+                    break;
+                case Message.CAPTURE_SUCCESS:
+                    owners.set(id, -message.getPlayer());
+                    break;
+                case Message.CAPTURE_FAILURE:
+                    owners.set(id, 0);
+                    break;
+            }
+            message.recycle();
+        }
+    }
+
+    //print what happened during a run
+    private void report(long elapsed, long cpu) {
+        double seconds = elapsed / 1e9;
+        long sent = sentMessages.get();
+        System.out.println();
+        System.out.println(String.format("%d players, %dx%d grid, %.1f s", playerCount, gridSize, gridSize, seconds));
+        System.out.println(String.format("  server in:   %.0f msg/s (%d)", sent / seconds, sent));
+        System.out.println(String.format("  server out:  %.0f msg/s (%d), %.1f sent per received, %.0f KB/s encoded",
+                receivedMessages / seconds, receivedMessages, (double) receivedMessages / Math.max(sent, 1),
+                receivedBytes / seconds / 1024));
+        long maxBytes = 0;
+        for(int i = 1; i <= playerCount; i++) {
+            maxBytes = Math.max(maxBytes, playerBytes[i]);
+        }
+        System.out.println(String.format("  per player:  %.1f KB/s on average, %.1f KB/s at most, %d stroke points left out of %d",
+                receivedBytes / seconds / 1024 / playerCount, maxBytes / seconds / 1024,
+                skippedPoints(), skippedPoints() + sentPoints()));
+        System.out.println(String.format("  server cpu:  %.0f%% of a core, %.2f us per received message",
+                100.0 * cpu / elapsed, cpu / 1000.0 / Math.max(sent, 1)));
+        System.out.println(String.format("  locks:       %d asked, %d lost, %d timed out, %d captured, %d released",
+                locks, lostLocks, timeouts, captures, releases));
+        System.out.println("  grant (player):           " + grantLatency);
+        System.out.println("  grant (server, right away): " + server.getImmediateGrants());
+        System.out.println("  grant (server, contended):  " + server.getContendedGrants());
+    }
+
+    //stroke points the server sent and left out, for all players
+    private long sentPoints() {
+        long points = 0;
+        for(int i = 1; i <= playerCount; i++) {
+            points += server.getStrokePointsSent(i);
+        }
+        return points;
+    }
+
+    private long skippedPoints() {
+        long points = 0;
+        for(int i = 1; i <= playerCount; i++) {
+            points += server.getStrokePointsSkipped(i);
+        }
+        return points;
+    }
+
+    //random time to the next event of something happening rate times per second (ns)
+    private long interval(double rate) {
+        if(rate <= 0) {
+            return Long.MAX_VALUE / 2;
+        }
+        return (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+    }
+
+    //address of a simulated player (10.0.x.x, usual port)
+    private static byte[] address(int player) {
+        return PeerAddress.of(new byte[] {10, 0, (byte) (player >> 8), (byte) player}, Transport.PORT);
+    }
+}
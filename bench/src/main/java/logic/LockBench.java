@@ -0,0 +1,249 @@
+package logic;
+
+import javafx.util.Pair;
+import networking.Message;
+import networking.PeerAddress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Benchmark
+ *  Lock arbitration with N players asking for the same box or bursts of requests over many boxes, and the server itself
+ *  handling locks, releases and captures on big grids (through its queues, on its own thread)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LockBench {
+    private static final int PLAYERS = 4;
+
+    //arbiter of a 10x10 grid, every contender asks for the same box
+    @State(Scope.Thread)
+    public static class Arbiter {
+        @Param({"2", "8", "64"})
+        public int contenders;
+
+        LockArbiter arbiter;
+        int[] near = new int[255];
+        int box = 0;
+
+        @Setup
+        public void setUp() {
+            arbiter = new LockArbiter(10);
+        }
+    }
+
+    //arbiter of a bigger grid, a burst of requests from every player spread over all its boxes
+    @State(Scope.Thread)
+    public static class Burst {
+        @Param({"1024", "4096"})
+        public int requests;
+
+        @Param({"16", "64"})
+        public int gridSize;
+
+        LockArbiter arbiter;
+        int[] near = new int[255];
+        int[] boxes;
+
+        @Setup
+        public void setUp() {
+            arbiter = new LockArbiter(gridSize);
+
+            //boxes visited in a scattered order, several requests per box once there are more requests than boxes
+            boxes = new int[requests];
+            for(int i = 0; i < requests; i++) {
+                boxes[i] = (int) ((i * 0x9E3779B1L) % (gridSize * gridSize));
+            }
+        }
+    }
+
+    //server thread with an empty grid (locks and releases)
+    @State(Scope.Thread)
+    public static class EmptyServer {
+        @Param({"10", "50", "100"})
+        public int gridSize;
+
+        Server server;
+
+        @Setup
+        public void setUp() {
+            server = new Server(gridSize, false);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            server.stop();
+        }
+    }
+
+    //server thread with a full grid (every capture ends the game)
+    @State(Scope.Thread)
+    public static class FullServer {
+        @Param({"10", "50", "100"})
+        public int gridSize;
+
+        Server server;
+
+        @Setup
+        public void setUp() {
+            server = new Server(gridSize, true);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            server.stop();
+        }
+    }
+
+    //every contender is active around the box, asks for it, the window is solved right away
+    @Benchmark
+    public int arbitrate(Arbiter state) {
+        int x = state.box % 10;
+        int y = (state.box / 10) % 10;
+        state.box++;
+
+        LockArbiter arbiter = state.arbiter;
+        for(int player = 1; player <= state.contenders; player++) {
+            arbiter.setActive(player, x, y);
+        }
+        int winners = arbiter.getPlayersNear(x, y, 1, state.near);
+        for(int player = 1; player <= state.contenders; player++) {
+            arbiter.add(new LockRequestObj(x, y, state.contenders - player, player), 0);
+        }
+        LockRequestObj winner = arbiter.poll();
+        while(winner != null) {
+            winners += winner.getOwner();
+            winner = arbiter.poll();
+        }
+        return winners;
+    }
+
+    //what the server does for every lock request of the burst, then every window is solved
+    @Benchmark
+    public int arbitrateBurst(Burst state) {
+        LockArbiter arbiter = state.arbiter;
+        int gridSize = state.gridSize;
+        int winners = 0;
+        for(int i = 0; i < state.requests; i++) {
+            int x = state.boxes[i] / gridSize;
+            int y = state.boxes[i] % gridSize;
+            int player = 1 + i % 255;
+            winners += arbiter.getPlayersNear(x, y, player, state.near);
+            arbiter.setActive(player, x, y);
+            if(!arbiter.hasWindow(x, y)) {
+                winners++;
+            }
+            arbiter.add(new LockRequestObj(x, y, state.requests - i, player), 0);
+        }
+        LockRequestObj winner = arbiter.poll();
+        while(winner != null) {
+            winners += winner.getOwner();
+            winner = arbiter.poll();
+        }
+        return winners;
+    }
+
+    //lock a box, then release it: 2 broadcasts
+    @Benchmark
+    public long serverLockRelease(EmptyServer state) throws InterruptedException {
+        Server server = state.server;
+        int x = server.nextX();
+        int y = server.nextY();
+        Message lock = new Message(Message.TO_SERVER, Message.LOCK_BOX, x, y, 1);
+        lock.setTime(System.nanoTime());
+        lock.setTimeError(0);
+        server.recvQueue.produce(lock);
+        server.recvQueue.produce(new Message(Message.TO_SERVER, Message.CAPTURE_FAILURE, x, y, 1));
+        return server.waitForBroadcasts(2);
+    }
+
+    //capture the last box of a full grid: game over is computed and broadcast every time
+    @Benchmark
+    public long serverCaptureSuccess(FullServer state) throws InterruptedException {
+        Server server = state.server;
+        server.recvQueue.produce(new Message(Message.TO_SERVER, Message.CAPTURE_SUCCESS, server.nextX(), server.nextY(), 1));
+        return server.waitForBroadcasts(1);
+    }
+
+    //a backup server running on its own thread, fed through its queues
+    static class Server {
+        final MessageQueue<Message> recvQueue = new MessageQueue<>();
+        final MessageQueue<Message> sendQueue = new MessageQueue<>();
+        private final ServerThread server;
+        private final Thread thread;
+        private final int gridSize;
+        private int box = 0;
+
+        Server(int gridSize, boolean full) {
+            this.gridSize = gridSize;
+            Grid grid = new Grid(gridSize, Math.max(600 / gridSize, 1));
+            if(full) {
+                for(int x = 0; x < gridSize; x++) {
+                    for(int y = 0; y < gridSize; y++) {
+                        grid.setOwner(x, y, 1 + (x + y) % PLAYERS);
+                    }
+                }
+            }
+
+            Vector<Pair<byte[], String>> players = new Vector<>();
+            for(int i = 1; i <= PLAYERS; i++) {
+                players.add(new Pair<>(PeerAddress.of(new byte[] {10, 0, 0, (byte) i}, 8888), "player" + i));
+            }
+
+            server = new ServerThread(recvQueue, sendQueue, new MessageQueue<>(), players, grid, null, null, null);
+            thread = new Thread(() -> {
+                try {
+                    server.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            thread.start();
+        }
+
+        //boxes one after another
+        int nextX() {
+            return (box % (gridSize * gridSize)) / gridSize;
+        }
+
+        int nextY() {
+            return box++ % gridSize;
+        }
+
+        //wait for every player to get that many broadcasts (heartbeats and snapshots don't count)
+        long waitForBroadcasts(int count) throws InterruptedException {
+            long sent = 0;
+            int expected = count * PLAYERS;
+            while(expected > 0) {
+                Message message = sendQueue.take();
+                if(message.getType() != Message.HEARTBEAT && message.getType() != Message.SNAPSHOT) {
+                    expected--;
+                }
+                sent += message.getType();
+                message.recycle();
+            }
+            return sent;
+        }
+
+        void stop() throws InterruptedException {
+            server.stopThread();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package logic;
+
+import networking.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Benchmark
+ *  Messages going through a MessageQueue from several producer threads to one consumer
+ *  (like the networking and UI threads feeding the client and server threads), time per message
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class QueueBench {
+    private static final int BATCH = 4096;
+
+    @Param({"1", "2", "4"})
+    public int producers;
+
+    private MessageQueue<Message> queue;
+    private Message message;
+    private ExecutorService pool;
+
+    @Setup
+    public void setUp() {
+        queue = new MessageQueue<>();
+        message = new Message(Message.TO_SERVER, Message.UPDATE, 1, 2, 3);
+        pool = Executors.newFixedThreadPool(producers);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    //the producers share a batch, everything is consumed on this thread
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long produceConsume() throws InterruptedException {
+        int each = BATCH / producers;
+        for(int i = 0; i < producers; i++) {
+            pool.execute(() -> {
+                for(int j = 0; j < each; j++) {
+                    queue.produce(message);
+                }
+            });
+        }
+
+        long consumed = 0;
+        for(int i = 0; i < each * producers; i++) {
+            consumed += queue.take().getPlayer();
+        }
+        return consumed;
+    }
+}
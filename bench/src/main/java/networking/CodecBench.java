@@ -0,0 +1,79 @@
+package networking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Benchmark
+ *  Encoding and decoding the messages sent the most: drawings, lock requests and stroke frames
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodecBench {
+    private static final int STROKE_POINTS = 100;
+
+    @Param({"update", "lockBox", "strokes"})
+    public String type;
+
+    private Message message;
+    private final ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_SIZE);
+    private final ByteBuffer encoded = ByteBuffer.allocate(MessageCodec.MAX_SIZE);
+    private final Message decoded = new Message();
+
+    @Setup
+    public void setUp() {
+        switch (type) {
+            case "update":
+                message = new Message(Message.TO_SERVER, Message.UPDATE, 123, 456, 2);
+                message.setAck(7654321, 0xF0F0L);
+                break;
+            case "lockBox":
+                message = new Message(Message.TO_SERVER, Message.LOCK_BOX, 3, 4, 2);
+                message.setTime(System.nanoTime());
+                message.setTimeError(250000);
+                break;
+            default:
+                //a stroke frame of 2 players drawing lines in 2 boxes
+                message = new Message(Message.TO_CLIENT, Message.STROKES);
+                message.setBoxSize(60);
+                for(int i = 0; i < STROKE_POINTS; i++) {
+                    int player = 1 + i % 2;
+                    message.addPoint(60 * player + i / 2, 120 + (i / 2) % 40, player);
+                }
+        }
+        message.setID(1234567);
+
+        MessageCodec.encode(message, encoded);
+        encoded.flip();
+    }
+
+    @Benchmark
+    public int encode() {
+        buffer.clear();
+        MessageCodec.encode(message, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public Message decode() {
+        encoded.rewind();
+        MessageCodec.decode(encoded, decoded);
+        return decoded;
+    }
+}
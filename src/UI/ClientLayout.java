@@ -9,6 +9,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import logic.Game;
 import logic.MessageQueue;
+import networking.Message;
 
 /**
  *  Scene
@@ -17,20 +18,20 @@ import logic.MessageQueue;
 class ClientLayout extends VBox {
     private final double WIDTH = 300;
     private final double HEIGHT = 250;
-    private final String CONNECT = "1";
+    private final long IDLE_TIMEOUT = 100;
     private Game game;
 
     private boolean connected = false;
 
     private Scene caller;
-    private MessageQueue<String> UIrecvQueue, UIsendQueue;
+    private MessageQueue<Message> UIrecvQueue, UIsendQueue;
 
     private Label readyTextField;
     private Scene nextScene;
 
     //layout of the scene
-    ClientLayout(Stage stage, Game game, MessageQueue<String> UIrecvQueue,
-                 MessageQueue<String> UIsendQueue) {
+    ClientLayout(Stage stage, Game game, MessageQueue<Message> UIrecvQueue,
+                 MessageQueue<Message> UIsendQueue) {
 
         super(20);
         super.setWidth(WIDTH);
@@ -40,8 +41,7 @@ class ClientLayout extends VBox {
         this.UIrecvQueue = UIrecvQueue;
         this.UIsendQueue = UIsendQueue;
 
-        game.spawnSendThread();
-        game.spawnReceiveThread();
+        game.spawnNetworkingThreads();
 
         Label clientLabel = new Label("Client Menu");
         Label ipLabel = new Label("IP:");
@@ -67,7 +67,7 @@ class ClientLayout extends VBox {
     private void connectButton(Stage stage, TextField ipTextField) {
         // Connect to host
         game.setHost(ipTextField.getText());
-        UIsendQueue.produce("1#" + CONNECT + "#" + game.getMyName());
+        UIsendQueue.produce(new Message(Message.TO_SERVER, Message.CONNECT, game.getMyName()));
 
         ///SET TEMP VALUES FOR GAME SETTINGS
         game.setBrushSize(Integer.parseInt("5"));
@@ -90,34 +90,35 @@ class ClientLayout extends VBox {
     //listen thread to get updates from server
     private void listenThread() {
         while(!getConnected()) {
-            String message = UIrecvQueue.consume();
+            Message message = UIrecvQueue.poll(IDLE_TIMEOUT);
             if(message != null) {
                 processMessageConnected(message);
+                message.recycle();
             }
         }
     }
 
     //process answers from server (is-connected, start-game)
-    private void processMessageConnected(String message) {
-        if(message.startsWith("2")) {
+    private void processMessageConnected(Message message) {
+        if(message.getType() == Message.CONNECT_REPLY) {
             Platform.runLater(() -> setConnectedText("Connected to server. Waiting to start"));
-        } else if (message.startsWith("3")) {
+        } else if (message.getType() == Message.START_GAME) {
             getSettings(message);
             setConnected(true);
         }
     }
 
     //synchronization
-    private void getSettings(String message) {
-        String[] parts = message.split("#");
+    private void getSettings(Message message) {
+        String[] parts = message.getText().split("#");
 
-        int brushSize = Integer.parseInt(parts[1]);
+        int brushSize = Integer.parseInt(parts[0]);
         game.setBrushSize(brushSize);
 
-        int gridSize = Integer.parseInt(parts[2]);
+        int gridSize = Integer.parseInt(parts[1]);
         game.setGridSize(gridSize);
 
-        int fillPercentage = Integer.parseInt(parts[3]);
+        int fillPercentage = Integer.parseInt(parts[2]);
         game.setFillPercentage(fillPercentage);
     }
 
@@ -1,15 +1,21 @@
 package UI;
 
-import javafx.application.Platform;
-import javafx.concurrent.Task;
+import javafx.animation.AnimationTimer;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Label;
 import logic.Box;
 import logic.Game;
 import logic.Grid;
+import logic.LatencyHistogram;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 import logic.MessageQueue;
+import networking.Message;
+
+import java.util.Arrays;
 
 /**
  *  Scene
@@ -32,16 +38,38 @@ class GameBoardLayout extends Pane {
     private int boxSize;
     private int canvasSize;
     private Canvas canvas;
+    private ImageView imageView;
+
+    //paint in an ARGB buffer written to an image instead of drawing on the canvas (-DbackBuffer=true)
+    private static final boolean BACK_BUFFER = Boolean.getBoolean("backBuffer");
     private String winners = "";
     private GameState state = GameState.PLAYING;
 
-    private MessageQueue<String> UIrecvQueue, UIsendQueue;
+    //box locked here before the server answered (-1 = none), points drawn in it meanwhile (x, y)
+    //and what to send once the lock is confirmed if the mouse was released already (0 = nothing)
+    private int pendingX = -1;
+    private int pendingY = -1;
+    private int[] pendingPoints = new int[2 * 256];
+    private int pendingCount = 0;
+    private int pendingRelease = 0;
+
+    private MessageQueue<Message> UIrecvQueue, UIsendQueue;
+
+    //received messages are applied once per frame
+    private AnimationTimer timer;
+    private int queueDepth = 0;
+    private int maxQueueDepth = 0;
+    private LatencyHistogram applyTimes = new LatencyHistogram();
+    private Label statsLabel;
+    private long statsTime = 0;
+    private static final boolean SHOW_STATS = Boolean.getBoolean("uiStats");
 
     private final int UPDATE_MESSAGE = 4;
     private final int CAPTURE_SUCCESS = 5;
     private final int CAPTURE_FAILURE = 6;
     private final int LOCK_BOX = 7;
     private final int GAME_OVER = 8;
+    private final int STROKES = 10;
     private final int SERVER_DOWN = 80;
 
     //set up canvas to draw
@@ -53,17 +81,25 @@ class GameBoardLayout extends Pane {
         canvasSize = gridSize * boxSize;            //canvas size
 
         canvas = new Canvas(canvasSize, canvasSize);
-        gc = new GraphicsContextWrapper(canvas.getGraphicsContext2D());
+        if(BACK_BUFFER) {
+            //draw in an image shown over the canvas (the canvas still gets the mouse)
+            WritableImage image = new WritableImage(canvasSize, canvasSize);
+            gc = new GraphicsContextWrapper(image, gridSize, boxSize);
+            imageView = new ImageView(image);
+            imageView.setMouseTransparent(true);
+        } else {
+            gc = new GraphicsContextWrapper(canvas.getGraphicsContext2D(), gridSize, boxSize);
+        }
     }
 
     //helper function to pin point box coordinates
     private void setCoordinateIndex(double mousePosX, double mousePosY) {
         x = ((int) mousePosX) / boxSize;
-        if (x >= gridSize) {
+        y = ((int) mousePosY) / boxSize;
+        if (x < 0 || x >= gridSize || y < 0 || y >= gridSize) {
             x = -1;
+            y = -1;
         }
-
-        y = ((int) mousePosY) / boxSize;
     }
 
     //create grid to draw
@@ -71,7 +107,7 @@ class GameBoardLayout extends Pane {
         Grid grid = game.getGrid();
         for(int row = 0; row < gridSize; row++) {
             for(int col = 0; col < gridSize; col++) {
-                int owner = grid.getBox(row, col).getOwner();
+                int owner = grid.getOwner(row, col);
                 gc.drawBox(row, col, boxSize, owner);
             }
         }
@@ -85,17 +121,33 @@ class GameBoardLayout extends Pane {
         }
         int player = game.getMyPID();
         setCoordinateIndex(mousePosX, mousePosY);
+        if(x < 0) {
+            return;
+        }
         Box box = game.getGrid().getBox(x, y);
 
         //send request to lock the box if no one owns the box yet
         if(box.getOwner() == 0) {
             gc.fillRect(mousePosX, mousePosY, brushSize, player);
-            UIsendQueue.produce("1#" + LOCK_BOX + "#" + x + "#" + y + "#" + player);
+            UIsendQueue.produce(new Message(Message.TO_SERVER, LOCK_BOX, x, y, player));
+
+            //consider it locked until the server says otherwise
+            if(Game.LOCK_PREDICT && pendingX < 0) {
+                box.setOwner(player);
+                pendingX = x;
+                pendingY = y;
+                pendingCount = 0;
+                pendingRelease = 0;
+            }
         }
     }
 
     //action when mouse is dragged
     private void mouseDragged(double mousePosX, double mousePosY) {
+        //not drawing in a box (pressed outside the grid, or the lock was lost while drawing)
+        if(x < 0) {
+            return;
+        }
         int player = game.getMyPID();
         Box box = game.getGrid().getBox(x, y);
 
@@ -105,9 +157,6 @@ class GameBoardLayout extends Pane {
         }
 
         //various canvas space checks
-        if(x < 0) {
-            return;
-        }
         if((mousePosX < x * boxSize) || (mousePosX >= (x + 1) * boxSize - brushSize))  {
             return;
         }
@@ -119,8 +168,12 @@ class GameBoardLayout extends Pane {
         gc.fillRect(mousePosX, mousePosY, brushSize, player);
         box.setUnit((int)(mousePosX % boxSize), (int)(mousePosY % boxSize), brushSize);
 
-        //send what we draw to server
-        UIsendQueue.produce("1#" + UPDATE_MESSAGE + "#" + mousePosX + "#" + mousePosY + "#" + player);
+        //send what we draw to server (once the lock is confirmed)
+        if(isPending(x, y)) {
+            addPendingPoint((int) mousePosX, (int) mousePosY);
+            return;
+        }
+        UIsendQueue.produce(new Message(Message.TO_SERVER, UPDATE_MESSAGE, (int) mousePosX, (int) mousePosY, player));
 
     }
 
@@ -138,17 +191,25 @@ class GameBoardLayout extends Pane {
             return;
         }
 
-        //if box is captured successfully
+        //if box is captured successfully (told to the server once the lock is confirmed)
         if(box.getPercentageFilled() >= fllPercentage) {
             box.fillBox();
             gc.drawBox(x, y, boxSize, player);
-            UIsendQueue.produce("1#" + CAPTURE_SUCCESS + "#"+ x + "#" + y + "#" + player);
+            if(isPending(x, y)) {
+                pendingRelease = CAPTURE_SUCCESS;
+            } else {
+                UIsendQueue.produce(new Message(Message.TO_SERVER, CAPTURE_SUCCESS, x, y, player));
+            }
 
         //if not
         } else {
             box.clearBox();
             gc.drawBox(x, y, boxSize, 0);
-            UIsendQueue.produce("1#" + CAPTURE_FAILURE + "#"+ x + "#" + y + "#" + player);
+            if(isPending(x, y)) {
+                pendingRelease = CAPTURE_FAILURE;
+            } else {
+                UIsendQueue.produce(new Message(Message.TO_SERVER, CAPTURE_FAILURE, x, y, player));
+            }
         }
 
         //reset x and y boxes
@@ -157,8 +218,8 @@ class GameBoardLayout extends Pane {
     }
 
     //layout of the scene
-    GameBoardLayout(Stage stage, Game game, MessageQueue<String> UIrecvQueue,
-                    MessageQueue<String> UIsendQueue)
+    GameBoardLayout(Stage stage, Game game, MessageQueue<Message> UIrecvQueue,
+                    MessageQueue<Message> UIsendQueue)
     {
         this.game = game;
         this.UIrecvQueue = UIrecvQueue;
@@ -184,54 +245,116 @@ class GameBoardLayout extends Pane {
 
         // Add the Canvas to the Pane
         this.getChildren().add(canvas);
+        if(imageView != null) {
+            this.getChildren().add(imageView);
+        }
+        if(SHOW_STATS) {
+            statsLabel = new Label();
+            statsLabel.setLayoutX(canvasSize + 20);
+            statsLabel.setLayoutY(20);
+            this.getChildren().add(statsLabel);
+        }
         startListening();
 
     }
 
-    //spawn listen thread to update drawings
+    //apply received messages once per frame (on the JavaFX thread, before the frame is drawn)
     private void startListening() {
-        Task<Void> task = new Task<Void>() {
+        timer = new AnimationTimer() {
             @Override
-            protected Void call() {
-                listeningThread();
-                Platform.runLater(() -> showWinText());
-                return null;
+            public void handle(long now) {
+                applyFrame();
             }
         };
-        Thread thread = new Thread(task);
-        thread.start();
+        timer.start();
     }
 
-    //listen thread
-    private void listeningThread() {
-        //stop when gameState is END
-        while(state != GameState.END) {
-            String message = UIrecvQueue.consume();
+    //apply everything received since the previous frame in one go
+    private void applyFrame() {
+        long start = System.nanoTime();
+
+        //what arrives while applying waits for the next frame
+        int count = UIrecvQueue.size();
+        queueDepth = count;
+        maxQueueDepth = Math.max(maxQueueDepth, count);
+        for(int i = 0; i < count && state != GameState.END; i++) {
+            Message message = UIrecvQueue.consume();
             if(message == null) {
-                continue;
+                break;
             }
 
-            //extract messages and perform actions accordingly
-            String[] messageParts = message.split("#");
-            int type = Integer.parseInt(messageParts[0]);
-            switch (type) {
-                case UPDATE_MESSAGE: Platform.runLater(() ->updateBoxDraw(messageParts)); break;
-                case CAPTURE_SUCCESS: Platform.runLater(() ->boxCaptured(messageParts)); break;
-                case CAPTURE_FAILURE: Platform.runLater(() ->boxCaptureFailed(messageParts)); break;
-                case LOCK_BOX: Platform.runLater(() ->lockBox(messageParts)); break;
-                case GAME_OVER: Platform.runLater(() ->gameOver(messageParts)); break;
-                case SERVER_DOWN: Platform.runLater(() ->showDisconnect()); break;
+            //perform actions accordingly
+            switch (message.getType()) {
+                case UPDATE_MESSAGE:
+                case STROKES:
+                case CAPTURE_SUCCESS:
+                case CAPTURE_FAILURE:
+                case LOCK_BOX:
+                case GAME_OVER:
+                case SERVER_DOWN: processMessage(message); break;
+                default: message.recycle();
             }
         }
+
+        //draw what changed since the last frame (mouse included)
+        gc.flush();
+        if(count > 0) {
+            applyTimes.record(System.nanoTime() - start);
+        }
+        showStats(start);
+
+        //stop when gameState is END
+        if(state == GameState.END) {
+            timer.stop();
+            showWinText();
+        }
+    }
+
+    //show queue depth and apply time of the frames (-DuiStats=true), twice a second
+    private void showStats(long now) {
+        if(statsLabel == null || now - statsTime < 500000000L) {
+            return;
+        }
+        statsTime = now;
+        statsLabel.setText("queue " + queueDepth + " (max " + maxQueueDepth + ")\napply " + applyTimes);
+    }
+
+    //messages waiting at the start of the last frame, and the most so far
+    int getQueueDepth() {
+        return queueDepth;
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    //time taken to apply the messages of a frame
+    LatencyHistogram getApplyTimes() {
+        return applyTimes;
+    }
+
+    //apply a message on the UI, then give it back to the pool
+    private void processMessage(Message message) {
+        switch (message.getType()) {
+            case UPDATE_MESSAGE: updateBoxDraw(message); break;
+            case STROKES: updateStrokes(message); break;
+            case CAPTURE_SUCCESS: boxCaptured(message); break;
+            case CAPTURE_FAILURE: boxCaptureFailed(message); break;
+            case LOCK_BOX: lockBox(message); break;
+            case GAME_OVER: gameOver(message); break;
+            case SERVER_DOWN: showDisconnect(); break;
+        }
+        message.recycle();
     }
 
     //game over, show win notification and stop all threads
-    private void gameOver(String[] messageParts) {
+    private void gameOver(Message message) {
+        String[] messageParts = message.getText().split("#");
         winners = "Winner:";
         //count and show winner(s)
-        for(int i = 1; i < 5; i++) {
+        for(int i = 0; i < messageParts.length; i++) {
             if(messageParts[i].equals("1")) {
-                winners += " " + translateIdToString(i-1);
+                winners += " " + translateIdToString(i);
             }
         }
         game.stopAllThreads();
@@ -246,7 +369,7 @@ class GameBoardLayout extends Pane {
         alert.show();
     }
 
-    //show disconnect when losing connection to server
+    //show disconnect when losing connection to server (the lock asked for is asked again from the next one)
     private void showDisconnect() {
         Alert alert = new Alert(Alert.AlertType.WARNING);
         alert.setTitle("Server Problem");
@@ -262,38 +385,94 @@ class GameBoardLayout extends Pane {
             case 2: return "Green";
             case 3: return  "Yellow";
         }
-        return "";
+        return "Player " + (id + 1);
     }
 
     //lock box, disallow this user to draw on
-    private void lockBox(String[] messageParts) {
-        int x = (int)(Double.parseDouble(messageParts[1]));
-        int y = (int)(Double.parseDouble(messageParts[2]));
-        int player = (int)(Double.parseDouble(messageParts[3]));
-
+    private void lockBox(Message message) {
+        int x = message.getX();
+        int y = message.getY();
+        int player = message.getPlayer();
+
+        //answer to the lock taken here in advance
+        if(isPending(x, y)) {
+            if(player == game.getMyPID()) {
+                confirmLock();
+            } else {
+                rollbackLock();
+            }
+        }
         game.getGrid().getBox(x, y).setOwner(player);
     }
 
+    //true if the box is locked here but not confirmed by the server yet
+    private boolean isPending(int x, int y) {
+        return x == pendingX && y == pendingY;
+    }
+
+    //remember a point drawn in the box until the lock is confirmed
+    private void addPendingPoint(int x, int y) {
+        if(2 * pendingCount == pendingPoints.length) {
+            pendingPoints = Arrays.copyOf(pendingPoints, 2 * pendingPoints.length);
+        }
+        pendingPoints[2 * pendingCount] = x;
+        pendingPoints[2 * pendingCount + 1] = y;
+        pendingCount++;
+    }
+
+    //the server agrees: send what was drawn meanwhile (and the release if it happened already)
+    private void confirmLock() {
+        int player = game.getMyPID();
+        for(int i = 0; i < pendingCount; i++) {
+            UIsendQueue.produce(new Message(Message.TO_SERVER, UPDATE_MESSAGE,
+                    pendingPoints[2 * i], pendingPoints[2 * i + 1], player));
+        }
+        if(pendingRelease != 0) {
+            UIsendQueue.produce(new Message(Message.TO_SERVER, pendingRelease, pendingX, pendingY, player));
+        }
+        pendingX = -1;
+        pendingY = -1;
+    }
+
+    //someone else got the box first: forget what was drawn in it and stop drawing there
+    private void rollbackLock() {
+        Box box = game.getGrid().getBox(pendingX, pendingY);
+        box.clearBox();
+        box.setOwner(0);
+        gc.drawBox(pendingX, pendingY, boxSize, 0);
+        if(x == pendingX && y == pendingY) {
+            x = -1;
+            y = -1;
+        }
+        pendingX = -1;
+        pendingY = -1;
+    }
+
     //update drawings others make on grid
-    private void updateBoxDraw(String[] messageParts) {
-        int x = (int)(Double.parseDouble(messageParts[1]));
-        int y = (int)(Double.parseDouble(messageParts[2]));
-        int player = (int)(Double.parseDouble(messageParts[3]));
+    private void updateBoxDraw(Message message) {
+        int x = message.getX();
+        int y = message.getY();
+        int player = message.getPlayer();
         gc.fillRect(x, y, brushSize, player);
     }
 
+    //update a whole frame of drawings others make on grid
+    private void updateStrokes(Message message) {
+        gc.fillRects(message.getPoints(), message.getPointCount(), brushSize, message.isConnected(), boxSize);
+    }
+
     //fill the whole box that has been captured
-    private void boxCaptured(String[] messageParts) {
-        int x = (int)(Double.parseDouble(messageParts[1]));
-        int y = (int)(Double.parseDouble(messageParts[2]));
-        int player = (int)(Double.parseDouble(messageParts[3]));
+    private void boxCaptured(Message message) {
+        int x = message.getX();
+        int y = message.getY();
+        int player = message.getPlayer();
         gc.drawBox(x, y, boxSize, player);
     }
 
     //clear the whole box that has been freed
-    private void boxCaptureFailed(String[] messageParts) {
-        int x = (int)(Double.parseDouble(messageParts[1]));
-        int y = (int)(Double.parseDouble(messageParts[2]));
+    private void boxCaptureFailed(Message message) {
+        int x = message.getX();
+        int y = message.getY();
         game.getGrid().getBox(x, y).setOwner(0);
         gc.drawBox(x, y, boxSize, 0);
     }
@@ -1,48 +1,446 @@
 package UI;
 
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
 /**
  *  Graphics Context: what canvas uses to draw on
- *  This is a wrapper class to allow multithreading
+ *  Drawings are not sent to the canvas right away: each box keeps which player last painted each pixel
+ *  since the previous frame, and once per frame (flush) only the changed part of the changed boxes
+ *  is redrawn, as rectangles of the same color (rows of pixels, joined with the identical rows below),
+ *  one color at a time
+ *  With an image given, pixels are copied to an ARGB buffer instead and only the rows that changed
+ *  are written to the image (no canvas drawing at all)
+ *  Only used from the JavaFX thread
  */
 class GraphicsContextWrapper {
+    private static final int MAX_PLAYERS = 255;
+
+    //colors of the players (0 = nobody)
+    private static final Color[] COLORS = new Color[MAX_PLAYERS + 1];
+
     private GraphicsContext gc;
+    private final int gridSize;
+    private final int boxSize;
+    private final int canvasSize;
+
+    //player that painted each pixel of a box since the last frame (-1 = unchanged), created when first needed
+    private final short[][] pixels;
+
+    //changed area of each box (from min included to max excluded) and if its border has to be drawn again
+    private final int[] minX, minY, maxX, maxY;
+    private final boolean[] border;
+
+    //boxes changed since the last frame
+    private final int[] dirtyBoxes;
+    private final boolean[] dirty;
+    private int dirtyCount = 0;
+
+    //rectangles to fill, by color (x, y, width, height), and the colors used in this frame
+    private final int[][] rects = new int[MAX_PLAYERS + 1][];
+    private final int[] rectCounts = new int[MAX_PLAYERS + 1];
+    private final int[] usedColors = new int[MAX_PLAYERS + 1];
+    private int usedCount = 0;
+
+    //rows of pixels of the same color still growing downwards (x from, x to, color, first row)
+    private int[] openRuns;
+    private int openCount;
+    private int[] rowRuns;
+
+    //number of fillRect sent to the canvas so far
+    private long fillCount = 0;
 
-    GraphicsContextWrapper(GraphicsContext gc) {
+    //back buffer mode: whole board in premultiplied ARGB, written to the image, and the color of each player
+    private PixelWriter writer;
+    private PixelFormat<IntBuffer> format;
+    private int[] argb;
+    private static final int[] ARGB_COLORS = new int[MAX_PLAYERS + 1];
+    private static final int BORDER = 0xFF000000;
+
+    //number of pixels written to the image so far
+    private long pixelCount = 0;
+
+    //draw with the graphics context of a canvas
+    GraphicsContextWrapper(GraphicsContext gc, int gridSize, int boxSize) {
+        this(gc, null, gridSize, boxSize);
+    }
+
+    //draw in an image of the whole board
+    GraphicsContextWrapper(WritableImage image, int gridSize, int boxSize) {
+        this(null, image, gridSize, boxSize);
+    }
+
+    private GraphicsContextWrapper(GraphicsContext gc, WritableImage image, int gridSize, int boxSize) {
         this.gc = gc;
+        this.gridSize = gridSize;
+        this.boxSize = boxSize;
+        canvasSize = gridSize * boxSize;
+
+        int boxes = gridSize * gridSize;
+        pixels = new short[boxes][];
+        minX = new int[boxes];
+        minY = new int[boxes];
+        maxX = new int[boxes];
+        maxY = new int[boxes];
+        border = new boolean[boxes];
+        dirtyBoxes = new int[boxes];
+        dirty = new boolean[boxes];
+        openRuns = new int[4 * (boxSize + 1)];
+        rowRuns = new int[4 * (boxSize + 1)];
+
+        if(image != null) {
+            writer = image.getPixelWriter();
+            format = PixelFormat.getIntArgbPreInstance();
+            argb = new int[canvasSize * canvasSize];
+            Arrays.fill(argb, getArgb(0));
+        }
     }
 
     //normal drawing with brush size
-    synchronized void fillRect(double x, double y, double size, int player) {
-        setFill(player);
-        gc.fillRect(x, y, size, size);
-    }
-
-    //draw a particular box from X, Y coordinates, size and player ID
-    synchronized void drawBox(int indexX, int indexY, double boxSize, int player) {
-        double posX = indexX * boxSize;
-        double posY = indexY * boxSize;
-
-        fillRect(posX, posY, boxSize, player);
-        gc.strokeLine(posX, posY, posX + boxSize, posY);
-        gc.strokeLine(posX, posY, posX, posY + boxSize);
-        gc.strokeLine(posX + boxSize, posY, posX + boxSize, posY + boxSize);
-        gc.strokeLine(posX, posY + boxSize, posX + boxSize, posY + boxSize);
-    }
-
-    //set color based on player ID
-    private void setFill(int player) {
-        if(player == 1) {
-            gc.setFill(Color.RED);
-        } else if (player == 2) {
-            gc.setFill(Color.BLUE);
-        } else if (player == 3) {
-            gc.setFill(Color.GREEN);
-        } else if (player == 4) {
-            gc.setFill(Color.YELLOW);
-        } else{
-            gc.setFill((Color.WHITE));
+    void fillRect(double x, double y, double size, int player) {
+        int left = (int) Math.floor(x);
+        int top = (int) Math.floor(y);
+        int length = (int) Math.ceil(size);
+        paint(left, top, left + length, top + length, player);
+    }
+
+    //draw a whole stroke frame (x, y, player for each point)
+    //if connected, points of the same player in the same box are joined by a line of brush stamps
+    void fillRects(int[] points, int count, double size, boolean connected, int boxSize) {
+        for(int i = 0; i < count; i++) {
+            int x = points[3 * i];
+            int y = points[3 * i + 1];
+            int player = points[3 * i + 2];
+            if(connected && i > 0 && player == points[3 * (i - 1) + 2] &&
+                    x / boxSize == points[3 * (i - 1)] / boxSize &&
+                    y / boxSize == points[3 * (i - 1) + 1] / boxSize) {
+                fillLine(points[3 * (i - 1)], points[3 * (i - 1) + 1], x, y, size, player);
+            }
+            fillRect(x, y, size, player);
+        }
+    }
+
+    //brush stamps between two points (half a brush apart, without both ends)
+    private void fillLine(int x1, int y1, int x2, int y2, double size, int player) {
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        int steps = (int) Math.ceil(length / Math.max(1, size / 2));
+        for(int step = 1; step < steps; step++) {
+            double t = (double) step / steps;
+            fillRect(Math.floor(x1 + t * (x2 - x1)), Math.floor(y1 + t * (y2 - y1)), size, player);
+        }
+    }
+
+    //draw a particular box from X, Y coordinates, size and player ID (covers whatever was painted in it)
+    void drawBox(int indexX, int indexY, double boxSize, int player) {
+        if(indexX < 0 || indexY < 0 || indexX >= gridSize || indexY >= gridSize) {
+            return;
+        }
+        int id = indexX * gridSize + indexY;
+        short[] box = getPixels(id);
+        Arrays.fill(box, (short) player);
+        minX[id] = 0;
+        minY[id] = 0;
+        maxX[id] = this.boxSize;
+        maxY[id] = this.boxSize;
+        border[id] = true;
+    }
+
+    //remember that the player painted a rectangle of the canvas, box by box
+    private void paint(int left, int top, int right, int bottom, int player) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, canvasSize);
+        bottom = Math.min(bottom, canvasSize);
+        if(left >= right || top >= bottom) {
+            return;
+        }
+        for(int boxX = left / boxSize; boxX <= (right - 1) / boxSize; boxX++) {
+            for(int boxY = top / boxSize; boxY <= (bottom - 1) / boxSize; boxY++) {
+                int id = boxX * gridSize + boxY;
+                int fromX = Math.max(left - boxX * boxSize, 0);
+                int toX = Math.min(right - boxX * boxSize, boxSize);
+                int fromY = Math.max(top - boxY * boxSize, 0);
+                int toY = Math.min(bottom - boxY * boxSize, boxSize);
+
+                short[] box = getPixels(id);
+                for(int y = fromY; y < toY; y++) {
+                    Arrays.fill(box, y * boxSize + fromX, y * boxSize + toX, (short) player);
+                }
+                minX[id] = Math.min(minX[id], fromX);
+                minY[id] = Math.min(minY[id], fromY);
+                maxX[id] = Math.max(maxX[id], toX);
+                maxY[id] = Math.max(maxY[id], toY);
+            }
+        }
+    }
+
+    //pixels of a box, marked as changed in this frame
+    private short[] getPixels(int id) {
+        if(pixels[id] == null) {
+            pixels[id] = new short[boxSize * boxSize];
+            Arrays.fill(pixels[id], (short) -1);
+        }
+        if(!dirty[id]) {
+            dirty[id] = true;
+            dirtyBoxes[dirtyCount++] = id;
+            minX[id] = boxSize;
+            minY[id] = boxSize;
+            maxX[id] = 0;
+            maxY[id] = 0;
+            border[id] = false;
+        }
+        return pixels[id];
+    }
+
+    //draw everything that changed since the last frame
+    void flush() {
+        if(dirtyCount == 0) {
+            return;
+        }
+        if(writer != null) {
+            flushImage();
+            return;
+        }
+        for(int i = 0; i < dirtyCount; i++) {
+            collectRects(dirtyBoxes[i]);
+        }
+
+        //one color at a time
+        for(int i = 0; i < usedCount; i++) {
+            int player = usedColors[i];
+            int[] list = rects[player];
+            gc.setFill(getColor(player));
+            for(int j = 0; j < rectCounts[player]; j++) {
+                gc.fillRect(list[4 * j], list[4 * j + 1], list[4 * j + 2], list[4 * j + 3]);
+            }
+            fillCount += rectCounts[player];
+            rectCounts[player] = 0;
+        }
+        usedCount = 0;
+
+        //borders of the boxes painted as a whole
+        for(int i = 0; i < dirtyCount; i++) {
+            int id = dirtyBoxes[i];
+            if(border[id]) {
+                double posX = (id / gridSize) * boxSize;
+                double posY = (id % gridSize) * boxSize;
+                gc.strokeLine(posX, posY, posX + boxSize, posY);
+                gc.strokeLine(posX, posY, posX, posY + boxSize);
+                gc.strokeLine(posX + boxSize, posY, posX + boxSize, posY + boxSize);
+                gc.strokeLine(posX, posY + boxSize, posX + boxSize, posY + boxSize);
+            }
+            dirty[id] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    //copy the changed pixels to the buffer, then write the part of each box that changed to the image
+    //(box by box, a union of boxes far apart would rewrite everything in between)
+    private void flushImage() {
+        for(int i = 0; i < dirtyCount; i++) {
+            int id = dirtyBoxes[i];
+            int originX = (id / gridSize) * boxSize;
+            int originY = (id % gridSize) * boxSize;
+            short[] box = pixels[id];
+            for(int y = minY[id]; y < maxY[id]; y++) {
+                int row = (originY + y) * canvasSize + originX;
+                for(int x = minX[id]; x < maxX[id]; x++) {
+                    int player = box[y * boxSize + x];
+                    if(player >= 0) {
+                        argb[row + x] = getArgb(player);
+                        box[y * boxSize + x] = -1;
+                    }
+                }
+            }
+            if(border[id]) {
+                maxX[id] = Math.min(boxSize + 1, canvasSize - originX);
+                maxY[id] = Math.min(boxSize + 1, canvasSize - originY);
+            }
+        }
+
+        //borders of the boxes painted as a whole (over the boxes next to them too)
+        for(int i = 0; i < dirtyCount; i++) {
+            int id = dirtyBoxes[i];
+            if(border[id]) {
+                drawBorder((id / gridSize) * boxSize, (id % gridSize) * boxSize);
+            }
+        }
+
+        for(int i = 0; i < dirtyCount; i++) {
+            int id = dirtyBoxes[i];
+            int left = (id / gridSize) * boxSize + minX[id];
+            int top = (id % gridSize) * boxSize + minY[id];
+            int width = maxX[id] - minX[id];
+            int height = maxY[id] - minY[id];
+            if(width > 0 && height > 0) {
+                writer.setPixels(left, top, width, height, format, argb, top * canvasSize + left, canvasSize);
+                pixelCount += (long) width * height;
+            }
+            dirty[id] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    //the 4 lines around a box (the right and bottom ones are on the next box)
+    private void drawBorder(int posX, int posY) {
+        for(int i = 0; i <= boxSize; i++) {
+            if(posX + i < canvasSize) {
+                argb[posY * canvasSize + posX + i] = BORDER;
+                if(posY + boxSize < canvasSize) {
+                    argb[(posY + boxSize) * canvasSize + posX + i] = BORDER;
+                }
+            }
+            if(posY + i < canvasSize) {
+                argb[(posY + i) * canvasSize + posX] = BORDER;
+                if(posX + boxSize < canvasSize) {
+                    argb[(posY + i) * canvasSize + posX + boxSize] = BORDER;
+                }
+            }
+        }
+    }
+
+    //turn the changed area of a box into rectangles of the same color, and reset it
+    private void collectRects(int id) {
+        short[] box = pixels[id];
+        int originX = (id / gridSize) * boxSize;
+        int originY = (id % gridSize) * boxSize;
+        openCount = 0;
+
+        for(int y = minY[id]; y <= maxY[id]; y++) {
+            //rows of the same color in this line (none after the last line, to close everything)
+            int rowCount = 0;
+            if(y < maxY[id]) {
+                int x = minX[id];
+                while(x < maxX[id]) {
+                    int player = box[y * boxSize + x];
+                    int start = x;
+                    box[y * boxSize + x] = -1;
+                    x++;
+                    while(x < maxX[id] && box[y * boxSize + x] == player) {
+                        box[y * boxSize + x] = -1;
+                        x++;
+                    }
+                    if(player >= 0) {
+                        rowRuns[3 * rowCount] = start;
+                        rowRuns[3 * rowCount + 1] = x;
+                        rowRuns[3 * rowCount + 2] = player;
+                        rowCount++;
+                    }
+                }
+            }
+
+            //rows identical to one of the line above make its rectangle taller, the others are done
+            int kept = 0;
+            int next = 0;
+            for(int i = 0; i < openCount; i++) {
+                int from = openRuns[4 * i];
+                while(next < rowCount && rowRuns[3 * next] < from) {
+                    next++;
+                }
+                if(next < rowCount && rowRuns[3 * next] == from &&
+                        rowRuns[3 * next + 1] == openRuns[4 * i + 1] && rowRuns[3 * next + 2] == openRuns[4 * i + 2]) {
+                    rowRuns[3 * next + 2] = -1 - rowRuns[3 * next + 2];
+                    System.arraycopy(openRuns, 4 * i, openRuns, 4 * kept, 4);
+                    kept++;
+                } else {
+                    addRect(openRuns[4 * i + 2], originX + from, originY + openRuns[4 * i + 3],
+                            openRuns[4 * i + 1] - from, y - openRuns[4 * i + 3]);
+                }
+            }
+            openCount = kept;
+
+            //new rows start new rectangles (kept sorted by x)
+            for(int i = 0; i < rowCount; i++) {
+                if(rowRuns[3 * i + 2] < 0) {
+                    rowRuns[3 * i + 2] = -1 - rowRuns[3 * i + 2];
+                    continue;
+                }
+                int at = openCount;
+                while(at > 0 && openRuns[4 * (at - 1)] > rowRuns[3 * i]) {
+                    at--;
+                }
+                System.arraycopy(openRuns, 4 * at, openRuns, 4 * (at + 1), 4 * (openCount - at));
+                openRuns[4 * at] = rowRuns[3 * i];
+                openRuns[4 * at + 1] = rowRuns[3 * i + 1];
+                openRuns[4 * at + 2] = rowRuns[3 * i + 2];
+                openRuns[4 * at + 3] = y;
+                openCount++;
+            }
+        }
+    }
+
+    //one more rectangle to fill with the color of a player
+    private void addRect(int player, int x, int y, int width, int height) {
+        int[] list = rects[player];
+        if(list == null) {
+            list = new int[4 * 64];
+            rects[player] = list;
+        } else if(4 * rectCounts[player] == list.length) {
+            list = Arrays.copyOf(list, 2 * list.length);
+            rects[player] = list;
+        }
+        if(rectCounts[player] == 0) {
+            usedColors[usedCount++] = player;
+        }
+        int index = 4 * rectCounts[player];
+        list[index] = x;
+        list[index + 1] = y;
+        list[index + 2] = width;
+        list[index + 3] = height;
+        rectCounts[player]++;
+    }
+
+    //number of fillRect sent to the canvas so far
+    long getFillCount() {
+        return fillCount;
+    }
+
+    //number of pixels written to the image so far
+    long getPixelCount() {
+        return pixelCount;
+    }
+
+    //color of a player as premultiplied ARGB (all colors are opaque)
+    static int getArgb(int player) {
+        if(player < 0 || player > MAX_PLAYERS) {
+            player = 0;
+        }
+        if(ARGB_COLORS[player] == 0) {
+            Color color = getColor(player);
+            ARGB_COLORS[player] = 0xFF000000 |
+                    ((int) Math.round(color.getRed() * 255) << 16) |
+                    ((int) Math.round(color.getGreen() * 255) << 8) |
+                    (int) Math.round(color.getBlue() * 255);
+        }
+        return ARGB_COLORS[player];
+    }
+
+    //color based on player ID: the 4 usual ones, then hues far apart from each other, white for nobody
+    static Color getColor(int player) {
+        if(player < 0 || player > MAX_PLAYERS) {
+            player = 0;
+        }
+        if(COLORS[player] == null) {
+            if(player == 1) {
+                COLORS[player] = Color.RED;
+            } else if (player == 2) {
+                COLORS[player] = Color.BLUE;
+            } else if (player == 3) {
+                COLORS[player] = Color.GREEN;
+            } else if (player == 4) {
+                COLORS[player] = Color.YELLOW;
+            } else if (player > 4) {
+                COLORS[player] = Color.hsb(((player - 5) * 137.508 + 30) % 360, 0.85, 0.9);
+            } else {
+                COLORS[player] = Color.WHITE;
+            }
         }
+        return COLORS[player];
     }
 }
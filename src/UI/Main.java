@@ -5,6 +5,7 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import logic.Game;
 import logic.MessageQueue;
+import networking.Message;
 
 /**
  *  Application initialization
@@ -13,8 +14,8 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) {
         //create game logic object
-        MessageQueue<String> UIrecvQueue = new MessageQueue<>();
-        MessageQueue<String> UIsendQueue = new MessageQueue<>();
+        MessageQueue<Message> UIrecvQueue = new MessageQueue<>();
+        MessageQueue<Message> UIsendQueue = new MessageQueue<>();
         Game game = new Game(UIrecvQueue, UIsendQueue);
 
         //create stage and welcome scene
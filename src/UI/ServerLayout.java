@@ -12,6 +12,8 @@ import javafx.stage.Stage;
 import javafx.util.Pair;
 import logic.Game;
 import logic.MessageQueue;
+import networking.Message;
+import networking.PeerAddress;
 
 import javax.swing.*;
 import javax.swing.plaf.UIResource;
@@ -28,13 +30,14 @@ class ServerLayout extends VBox {
 
     private final double WIDTH = 300;
     private final double HEIGHT = 500;
+    private final long IDLE_TIMEOUT = 100;
     private Scene caller;
     private Game game;
 
     private Thread listenThread;
     private boolean ready;
 
-    private MessageQueue<String> UIrecvQueue, UIsendQueue;
+    private MessageQueue<Message> UIrecvQueue, UIsendQueue;
 
     Label playersLabel1 = new Label();
     Label playersLabel2 = new Label();
@@ -42,8 +45,8 @@ class ServerLayout extends VBox {
     Label playersLabel4 = new Label();
 
     //layout of the scene
-    ServerLayout(Stage stage, Game game, MessageQueue<String> UIrecvQueue,
-                 MessageQueue<String> UIsendQueue) {
+    ServerLayout(Stage stage, Game game, MessageQueue<Message> UIrecvQueue,
+                 MessageQueue<Message> UIsendQueue) {
         super(20);
         super.setWidth(WIDTH);
         super.setHeight(HEIGHT);
@@ -84,8 +87,7 @@ class ServerLayout extends VBox {
 
     //spawn threads to prepare the game
     private void spawnThreads() {
-        game.spawnSendThread();
-        game.spawnReceiveThread();
+        game.spawnNetworkingThreads();
         game.spawnServerThread();
         game.spawnClientThread();
         spawnListenThread();
@@ -126,18 +128,19 @@ class ServerLayout extends VBox {
         int gridSize = game.getGridSize();
         int fillPercentage = game.getFillPercentage();
 
-        String message = "1#3#" + brushSize + "#" + gridSize + "#" + fillPercentage + "#" + System.currentTimeMillis();
+        String message = brushSize + "#" + gridSize + "#" + fillPercentage + "#" + System.currentTimeMillis();
         Vector<Pair<byte[], String>> players = game.getPlayers();
 
         int playerID = 1;
         for(Pair<byte[], String> player: players) {
             String playerIP = "#" + player.getKey()[0] + "#" + player.getKey()[1] + "#" + player.getKey()[2] +"#" + player.getKey()[3];
+            String playerPort = "#" + PeerAddress.getPort(player.getKey());
             String playerName = "#" + player.getValue();
-            message += (playerIP + playerName + "#" + playerID);
+            message += (playerIP + playerPort + playerName + "#" + playerID);
             playerID++;
         }
 
-        UIsendQueue.produce(message);
+        UIsendQueue.produce(new Message(Message.TO_SERVER, Message.START_GAME, message));
     }
 
     //listen thread to update who's connecting
@@ -156,14 +159,15 @@ class ServerLayout extends VBox {
     //listen thread
     private void listenThread() {
         while(!ready) {
-            String message = UIrecvQueue.consume();
+            Message message = UIrecvQueue.poll(IDLE_TIMEOUT);
             if(message == null) {
                 continue;
             }
 
-            if(message.charAt(0) == '1') {
+            if(message.getType() == Message.CONNECT) {
                 Platform.runLater(() -> showPlayers());
             }
+            message.recycle();
         }
     }
 
@@ -7,6 +7,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import logic.Game;
 import logic.MessageQueue;
+import networking.Message;
 
 /**
  *  Scene
@@ -18,7 +19,7 @@ class WelcomeLayout extends VBox {
     private final double HEIGHT = 200;
     private Scene thisScene;
     private Game game;
-    private MessageQueue<String> UIrecvQueue, UIsendQueue;
+    private MessageQueue<Message> UIrecvQueue, UIsendQueue;
 
     private enum NextScene {
         SERVER,
@@ -26,8 +27,8 @@ class WelcomeLayout extends VBox {
     }
 
     //layout of the scene
-    WelcomeLayout(Stage stage, Game game, MessageQueue<String> UIrecvQueue,
-                  MessageQueue<String> UIsendQueue) {
+    WelcomeLayout(Stage stage, Game game, MessageQueue<Message> UIrecvQueue,
+                  MessageQueue<Message> UIsendQueue) {
         super(20);
         super.setWidth(WIDTH);
         super.setHeight(HEIGHT);
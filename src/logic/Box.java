@@ -3,64 +3,46 @@ package logic;
 /**
  *  Logic
  *  Box inside the grid
+ *  Only a view, everything is stored in the grid
  */
 public class Box {
 
-    private boolean[][] units;
-    private int owner = 0;
-    private int count = 0;
+    private final Grid grid;
+    private final int id;
 
-    //create box with size
-    Box(int size) {
-        units = new boolean[size][size];
-        clearBox();
+    //view of box id of the grid
+    Box(Grid grid, int id) {
+        this.grid = grid;
+        this.id = id;
     }
 
     //get owner (default = 0, no owner)
     public int getOwner() {
-        return owner;
+        return grid.getOwner(id);
     }
 
     //set units that are drawn on UI
     public void setUnit(int posX, int posY, int brushSize) {
-        for(int i = 0; i < brushSize; i++){
-            for(int j = 0; j < brushSize; j++) {
-                if(!units[posX + i][posY + j]) {
-                    count++;
-                    units[posX + i][posY + j] = true;
-                }
-            }
-        }
+        grid.setUnit(id, posX, posY, brushSize);
     }
 
     //set owner of box based on ID (1-4), default = 0
     public void setOwner(int owner) {
-        this.owner = owner;
+        grid.setOwner(id, owner);
     }
 
     //clear the box
     public void clearBox() {
-        populateBox(false);
-        count = 0;
+        grid.clearBox(id);
     }
 
     //fill box
     public void fillBox() {
-        populateBox(true);
-        count = units.length * units.length;
-    }
-
-    //fill the whole box (nothing - false)
-    private void populateBox(boolean value) {
-        for(int i = 0; i < units.length; i++) {
-            for(int j = 0; j < units.length; j++) {
-                units[i][j] = value;
-            }
-        }
+        grid.fillBox(id);
     }
 
     //get percentage filled of the box
     public double getPercentageFilled() {
-        return ((double)count / (units.length * units.length) * 100);
+        return grid.getPercentageFilled(id);
     }
 }
@@ -2,6 +2,8 @@ package logic;
 
 import javafx.concurrent.Task;
 import javafx.util.Pair;
+import networking.Message;
+import networking.PeerAddress;
 import java.util.Vector;
 
 /**
@@ -11,8 +13,12 @@ import java.util.Vector;
 public class ClientThread extends Task<Void> {
 
     //queues for communication
-    private MessageQueue<Pair<byte[], String>> recvQueue, sendQueue;
-    private MessageQueue<String> UIsendQueue, UIrecvQueue;
+    private MessageQueue<Message> recvQueue, sendQueue;
+    private MessageQueue<Message> UIsendQueue, UIrecvQueue;
+    private QueueSelector selector;
+
+    //strokes from UI are sent once per tick
+    private StrokeBatcher strokes = new StrokeBatcher(Game.STROKE_TICK, Message.TO_SERVER, Game.STROKE_SIMPLIFY);
 
     //list of players and server
     private Vector<Pair<byte[], String>> players;
@@ -23,15 +29,31 @@ public class ClientThread extends Task<Void> {
     private boolean connectedToServer = false;
     private boolean isRunning = true;
 
-    //variables to calculate delay time
+    //timers (ping server every 500ms, every 50ms until the clock is synchronized,
+    //connection lost after 300ms of silence, the server sends heartbeats more often than that)
+    private final long PING_INTERVAL = 500;
+    private final long SYNC_PING_INTERVAL = 50;
+    private final long SERVER_TIMEOUT = Game.SERVER_TIMEOUT;
+
+    //last ping and last message from server
     private long currTime = System.currentTimeMillis();
-    private long rttC1, tripTime, diff, lastSeen;
+    private long lastSeen;
+
+    //estimate of the server clock, to timestamp lock requests
+    private ClockSync clock = new ClockSync();
+
+    //latest state of the server (only sent to the player next in line to host), to take over from
+    private byte[] snapshot;
+    private long snapshotVersion = -1;
+
+    //last lock request not answered yet, asked again from the next server if this one goes down
+    private Message pendingLock;
 
     //constructor
-    ClientThread(MessageQueue<Pair<byte[], String>> recvQueue,
-                 MessageQueue<Pair<byte[], String>> sendQueue,
-                 MessageQueue<String> UIsendQueue,
-                 MessageQueue<String> UIrecvQueue,
+    ClientThread(MessageQueue<Message> recvQueue,
+                 MessageQueue<Message> sendQueue,
+                 MessageQueue<Message> UIsendQueue,
+                 MessageQueue<Message> UIrecvQueue,
                  byte[] server, Vector<Pair<byte[], String>> players,
                  Game game) {
         this.recvQueue = recvQueue;
@@ -41,6 +63,9 @@ public class ClientThread extends Task<Void> {
         this.server = server;
         this.players = players;
         this.game = game;
+
+        //wake up on either messages from network or from UI
+        selector = new QueueSelector(recvQueue, UIsendQueue);
     }
 
     //main loop of the client, run when the thread starts
@@ -48,6 +73,7 @@ public class ClientThread extends Task<Void> {
     protected Void call() {
         try {
             while(isRunning) {
+                selector.select(nextTimeout());
                 processRecv();
                 processSend();
                 if(connectedToServer)
@@ -59,13 +85,33 @@ public class ClientThread extends Task<Void> {
         return null;
     }
 
-    //If no replies from server for 2 seconds, connection lost
+    //how long to sleep until the next ping or server check is due
+    private long nextTimeout() {
+        long now = System.currentTimeMillis();
+        long timeout = pingInterval() - (now - currTime);
+        if(connectedToServer) {
+            timeout = Math.min(timeout, SERVER_TIMEOUT - (now - lastSeen) + 1);
+        }
+        return strokes.nextTimeout(Math.max(timeout, 0));
+    }
+
+    //ping often until the clock is synchronized
+    private long pingInterval() {
+        return clock.isSynced() ? PING_INTERVAL : SYNC_PING_INTERVAL;
+    }
+
+    //If no replies from server for 300ms, connection lost
     private void isServerAlive() {
-        if(System.currentTimeMillis() - lastSeen > 2000) {
+        if(System.currentTimeMillis() - lastSeen > SERVER_TIMEOUT) {
             connectedToServer = false;
 
             //send a notification to UI
-            UIrecvQueue.produce("80");
+            UIrecvQueue.produce(new Message(Message.TO_CLIENT, Message.SERVER_DOWN));
+
+            //a room server isn't one of the players, nobody else can host its game
+            if(Game.ROOM != 0) {
+                return;
+            }
 
             //remove the current server from the list of players
             if(players.size() == 0) {
@@ -73,21 +119,33 @@ public class ClientThread extends Task<Void> {
             }
             players.remove(0);
 
-            //find the next server from the list of players
+            //find the next server from the list of players (its clock is a different one)
             server = players.elementAt(0).getKey();
+            clock.reset();
 
-            //if the server is this user
-            if(server[0] == game.getThisPlayerIP()[0] &&
-                server[1] == game.getThisPlayerIP()[1] &&
-                server[2] == game.getThisPlayerIP()[2] &&
-                server[3] == game.getThisPlayerIP()[3]) {
-
+            //if the server is this user, carry on from the last state the old server sent
+            if(PeerAddress.equals(server, game.getThisPlayerAddress())) {
                 game.setHost(server);
-                game.spawnBackupServerThread();
+                game.spawnBackupServerThread(snapshot, pendingLock);
             }
+            snapshot = null;
+            snapshotVersion = -1;
 
             //send request to connect
-            sendQueue.produce(new Pair<>(server, "1#1"));
+            Message connect = new Message(Message.TO_SERVER, Message.CONNECT);
+            connect.setAddress(server);
+            connect.setRoom(Game.ROOM);
+            sendQueue.produce(connect);
+
+            //ask again for the box the old server didn't answer, the clock of the new one isn't known yet
+            //so it orders the request by when it arrives
+            if(pendingLock != null) {
+                Message lock = pendingLock.copy(server);
+                lock.setRoom(Game.ROOM);
+                lock.setTime(0);
+                lock.setTimeError(-1);
+                sendQueue.produce(lock);
+            }
         }
     }
 
@@ -96,105 +154,171 @@ public class ClientThread extends Task<Void> {
         isRunning = false;
     }
 
+    //estimate of the server clock
+    ClockSync getClock() {
+        return clock;
+    }
+
     //process all receiving messages
     private void processRecv() {
         //pop message and update last time the server is seen online
-        Pair<byte[], String> message = recvQueue.consume();
+        Message message = recvQueue.consume();
         if(message == null) {
             return;
         }
 
         //drop all messages not coming from server
-        if(!isMessageFromServer(message)) {
+        if(!message.isAddress(server)) {
+            message.recycle();
             return;
         }
 
         lastSeen = System.currentTimeMillis();
 
         //extract message meanings
-        String[] parts = message.getValue().split("#");
-        switch (parts[0]) {
-            case "3": recvStartGame(parts); break;
-            case "9": recvPing(parts); break;
-            case "2": recvServerConnection(parts); break;
+        switch (message.getType()) {
+            case Message.START_GAME: recvStartGame(message); break;
+            case Message.PING: recvPing(message); break;
+            case Message.CONNECT_REPLY: recvServerConnection(message); break;
+            case Message.LOCK_BOX:
+            case Message.CAPTURE_SUCCESS:
+            case Message.CAPTURE_FAILURE: recvLockAnswer(message); break;
+            case Message.SNAPSHOT: recvSnapshot(message); break;
+        }
+
+        //heartbeats and snapshots are only for this thread, the UI recycles the rest once it's done with it
+        if(message.getType() == Message.SNAPSHOT || message.getType() == Message.HEARTBEAT) {
+            message.recycle();
+        } else {
+            UIrecvQueue.produce(message);
+        }
+    }
+
+    //keep the newest state of the server (they may arrive out of order)
+    private void recvSnapshot(Message message) {
+        byte[] data = message.getData();
+        StateSnapshot state = StateSnapshot.read(data);
+        if(state != null && state.getVersion() > snapshotVersion) {
+            snapshot = data;
+            snapshotVersion = state.getVersion();
         }
-        UIrecvQueue.produce(message.getValue());
     }
 
-    //check if the message is from server
-    private boolean isMessageFromServer(Pair<byte[], String> message) {
-        return (server[0] == message.getKey()[0] &&
-                server[1] == message.getKey()[1] &&
-                server[2] == message.getKey()[2] &&
-                server[3] == message.getKey()[3]);
+    //the lock asked for is answered (granted to someone, or already released)
+    private void recvLockAnswer(Message message) {
+        if(pendingLock != null && pendingLock.getX() == message.getX() && pendingLock.getY() == message.getY()) {
+            pendingLock.recycle();
+            pendingLock = null;
+        }
     }
 
     //server notifies to start the game
-    private void recvStartGame(String[] parts) {
-        //get the list of players (same as everyone)
+    private void recvStartGame(Message message) {
+        //get the list of players (same as everyone): IP, port, name and ID of each
+        String[] parts = message.getText().split("#");
         players.clear();
-        int startingIndex = 5;
-        for (; startingIndex < parts.length - 1; startingIndex += 6) {
+        int startingIndex = 4;
+        for (; startingIndex < parts.length - 1; startingIndex += 7) {
             byte[] ip = new byte[4];
             ip[0] = (byte) Integer.parseInt(parts[startingIndex]);
             ip[1] = (byte) Integer.parseInt(parts[startingIndex + 1]);
             ip[2] = (byte) Integer.parseInt(parts[startingIndex + 2]);
             ip[3] = (byte) Integer.parseInt(parts[startingIndex + 3]);
-            String name = parts[startingIndex + 4] + "#" + parts[startingIndex + 5];
-            players.add(new Pair<>(ip, name));
+            int port = Integer.parseInt(parts[startingIndex + 4]);
+            String name = parts[startingIndex + 5] + "#" + parts[startingIndex + 6];
+            players.add(new Pair<>(PeerAddress.of(ip, port), name));
         }
     }
 
-    //calculate delay time between this machine and server to adjust time stamp
-    private void recvPing(String[] parts) {
-        tripTime = (System.currentTimeMillis() - rttC1) / 2;
-        diff = System.currentTimeMillis() - (Long.parseLong(parts[1]) + tripTime);
+    //reply to a ping: one more sample of the server clock and of the round trip time
+    private void recvPing(Message message) {
+        long now = System.nanoTime();
+        clock.addSample(message.getEchoTime(), message.getTime(), now);
+        game.getRTT(server).addSample((now - message.getEchoTime()) / 1000000);
     }
 
     //successfully connect to the server
-    private void recvServerConnection(String[] parts) {
+    private void recvServerConnection(Message message) {
         //if it's the back up server, resynchronize game state
-        if (parts.length > 1) {
-            resyncGrid(parts[1]);
+        StateSnapshot state = StateSnapshot.read(message.getData());
+        if(state != null) {
+            resyncGrid(state);
         }
         connectedToServer = true;
     }
 
     //resynchronize game state to ensure everyone is having the same state
-    private void resyncGrid(String list) {
+    private void resyncGrid(StateSnapshot state) {
         Grid grid = game.getGrid();
-        for(int i = 0; i < list.length(); i++) {
-            int row = i / grid.size();
-            int col = i % grid.size();
-            grid.getBox(row, col).setOwner(Integer.parseInt(list.substring(i, i+1)));
+        if(grid == null || state.getGridSize() != grid.size()) {
+            return;
+        }
+        for(int row = 0; row < grid.size(); row++) {
+            for(int col = 0; col < grid.size(); col++) {
+                grid.setOwner(row, col, state.getOwner(row, col));
+            }
         }
     }
 
     //send things (from UI and ping the server every 500ms with )
     private void processSend() {
         sendFromUI();
-        if(System.currentTimeMillis() - currTime > 500){
-            sendQueue.produce(new Pair<>(server, "1#9#"));
+        if(strokes.isDue()) {
+            sendStrokes();
+        }
+        if(System.currentTimeMillis() - currTime >= pingInterval()){
+            Message ping = new Message(Message.TO_SERVER, Message.PING);
+            ping.setTime(System.nanoTime());
+            ping.setAddress(server);
+            ping.setRoom(Game.ROOM);
+            sendQueue.produce(ping);
             currTime = System.currentTimeMillis();
-            rttC1 = currTime;
         }
     }
 
     //get things to send to server from UIsendQueue
     private void sendFromUI() {
         //check if there's anything to send
-        String messageToSend = UIsendQueue.consume();
+        Message messageToSend = UIsendQueue.consume();
         if(messageToSend == null) {
             return;
         }
 
-        //if the message is request for box lock, add timestamp (with delay)
-        String[] parts = messageToSend.split("#");
-        if(parts[1].equals("7")) {
-            long serverTime = System.currentTimeMillis() - diff;
-            messageToSend += "#" + serverTime;
+        //drawings wait for the rest of the tick
+        if(messageToSend.getType() == Message.UPDATE) {
+            strokes.setBoxSize(game.getBoxSize());
+            strokes.add(messageToSend.getX(), messageToSend.getY(), messageToSend.getPlayer());
+            messageToSend.recycle();
+            return;
+        }
+
+        //anything else goes after the strokes drawn before it
+        sendStrokes();
+
+        //if the message is request for box lock, add timestamp (server clock) and how far off it may be
+        //(-1 until the clock is synchronized, the server then goes by arrival)
+        if(messageToSend.getType() == Message.LOCK_BOX) {
+            messageToSend.setTime(clock.isSynced() ? clock.getServerTime() : 0);
+            messageToSend.setTimeError(clock.isSynced() ? clock.getErrorBound() : -1);
+            if(pendingLock != null) {
+                pendingLock.recycle();
+            }
+            pendingLock = messageToSend.copy(null);
         }
 
-        sendQueue.produce(new Pair<>(server, messageToSend));
+        messageToSend.setAddress(server);
+        messageToSend.setRoom(Game.ROOM);
+        sendQueue.produce(messageToSend);
+    }
+
+    //send strokes collected so far as one frame
+    private void sendStrokes() {
+        Message frame = strokes.flush();
+        if(frame == null) {
+            return;
+        }
+        frame.setAddress(server);
+        frame.setRoom(Game.ROOM);
+        sendQueue.produce(frame);
     }
 }
@@ -0,0 +1,86 @@
+package logic;
+
+/**
+ *  Logic
+ *  Estimate of the server clock on this machine, NTP style:
+ *  every ping gives an offset (server time - local time at the middle of the round trip)
+ *  that is off by at most half the round trip, so the offset of the fastest of the last pings is used
+ *  Times are System.nanoTime() of each machine (monotonic, in ns)
+ */
+class ClockSync {
+    //number of pings kept, and how many before the estimate is trusted
+    private static final int SAMPLES = 16;
+    private static final int MIN_SAMPLES = 4;
+
+    //how fast two clocks can drift apart (100 ppm) and error bound with no sample at all (1s)
+    private static final double MAX_DRIFT = 100e-6;
+    private static final long NO_SAMPLE_ERROR = 1000000000L;
+
+    //last samples (oldest replaced first) and the one with the shortest round trip
+    private final long[] offsets = new long[SAMPLES];
+    private final long[] delays = new long[SAMPLES];
+    private final long[] times = new long[SAMPLES];
+    private int count = 0;
+    private int next = 0;
+    private int best = -1;
+
+    //a ping sent at sent (local time) was answered with serverTime and received at received (local time)
+    synchronized void addSample(long sent, long serverTime, long received) {
+        long delay = received - sent;
+        if(delay < 0) {
+            return;
+        }
+        offsets[next] = serverTime - (sent + delay / 2);
+        delays[next] = delay;
+        times[next] = received;
+        next = (next + 1) % SAMPLES;
+        if(count < SAMPLES) {
+            count++;
+        }
+
+        //keep the fastest one (least room for asymmetric paths)
+        best = 0;
+        for(int i = 1; i < count; i++) {
+            if(delays[i] < delays[best]) {
+                best = i;
+            }
+        }
+    }
+
+    //true once enough pings have been answered
+    synchronized boolean isSynced() {
+        return count >= MIN_SAMPLES;
+    }
+
+    //server time (ns) - local time (ns)
+    synchronized long getOffset() {
+        return best < 0 ? 0 : offsets[best];
+    }
+
+    //round trip of the sample used (ns)
+    synchronized long getDelay() {
+        return best < 0 ? 0 : delays[best];
+    }
+
+    //how far the estimate of the server time can be off (ns)
+    //half the round trip of the sample used, plus what the clocks may have drifted since
+    synchronized long getErrorBound() {
+        if(best < 0) {
+            return NO_SAMPLE_ERROR;
+        }
+        long age = System.nanoTime() - times[best];
+        return delays[best] / 2 + (long) (age * MAX_DRIFT);
+    }
+
+    //estimated server time now (ns)
+    long getServerTime() {
+        return System.nanoTime() + getOffset();
+    }
+
+    //forget everything (new server)
+    synchronized void reset() {
+        count = 0;
+        next = 0;
+        best = -1;
+    }
+}
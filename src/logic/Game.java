@@ -1,11 +1,15 @@
 package logic;
 
 import javafx.util.Pair;
-import networking.NetworkingRecv;
-import networking.NetworkingSend;
+import networking.ChannelTransport;
+import networking.Message;
+import networking.PeerAddress;
+import networking.RttEstimator;
+import networking.SocketTransport;
+import networking.Transport;
 
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Vector;
 /**
@@ -13,36 +17,67 @@ import java.util.Vector;
  *  Everything about the game
  */
 public class Game {
+    //how long strokes are collected before being sent as one frame (-DstrokeTick=ms)
+    static final long STROKE_TICK = Long.getLong("strokeTick", 16);
+
+    //drop points in the middle of straight strokes, others then see strokes as lines (-DstrokeSimplify=true)
+    static final boolean STROKE_SIMPLIFY = Boolean.getBoolean("strokeSimplify");
+
+    //strokes a player gets from the server: its own ones too (-DstrokeEcho=true), and for boxes further than
+    //-DstrokeRadius=1 boxes from where it's drawing only 1 point in -DstrokeThin=1 (1 = every point)
+    static final boolean STROKE_ECHO = Boolean.getBoolean("strokeEcho");
+    static final int STROKE_THIN = Integer.getInteger("strokeThin", 1);
+    static final int STROKE_RADIUS = Integer.getInteger("strokeRadius", 1);
+
+    //longest wait (ms) for competing lock requests, and whether a lock nobody else is close to is granted right away
+    //(-DlockWindow=20, -DlockImmediate=false to always wait)
+    static final long LOCK_WINDOW = Long.getLong("lockWindow", 20);
+    static final boolean LOCK_IMMEDIATE = Boolean.parseBoolean(System.getProperty("lockImmediate", "true"));
+
+    //draw in a box as soon as the lock is asked for, strokes are sent once the server agrees
+    //and the box is cleared if someone else got it (-DlockPredict=false to wait for the server)
+    public static final boolean LOCK_PREDICT = Boolean.parseBoolean(System.getProperty("lockPredict", "true"));
+
+    //UDP port and local address to listen on, several games can run on one machine with different ports
+    //(-Dport=8888, 0 = any free port, -Dbind=x.x.x.x, all addresses by default)
+    static final int PORT = Integer.getInteger("port", Transport.PORT);
+    static final String BIND = System.getProperty("bind");
+
+    //the server is heard from every 100ms, and considered gone after 300ms of silence
+    //(-Dheartbeat=100, -DserverTimeout=300)
+    static final long HEARTBEAT_INTERVAL = Long.getLong("heartbeat", 100);
+    static final long SERVER_TIMEOUT = Long.getLong("serverTimeout", 300);
+
+    //game to join on a room server (-Droom=0, see RoomServer), ignored by a normal host
+    static final int ROOM = Integer.getInteger("room", 0);
+
     //game data
     private int gridSize;
     private int brushSize;
     private int fillPercentage;
     private Grid grid;
 
-    //players info
+    //players info (addresses are IP and port, see PeerAddress)
     private Pair<byte[], String> thisPlayer;
     private Vector<Pair<byte[], String>> players;
-    private byte[] host = new byte[4];
+    private byte[] host = new byte[PeerAddress.LENGTH];
 
     //threads
-    private NetworkingRecv networkingRecv;
-    private NetworkingSend networkingSend;
     private ServerThread serverTask;
     private ClientThread clientTask;
 
-    //1 socket for both send and receive threads
-    private DatagramSocket socket;
+    //networking (NIO channel by default, old blocking socket with -Dtransport=socket)
+    private Transport transport;
 
     //various queues for communications between threads
-    private MessageQueue<Pair<byte[], String>> serverRecvQueue, clientRecvQueue, sendQueue;
-    private MessageQueue<ReliableObj> reliableQueue;
-    private MessageQueue<String> UIrecvQueue, UIsendQueue;
+    private MessageQueue<Message> serverRecvQueue, clientRecvQueue, sendQueue;
+    private MessageQueue<Message> UIrecvQueue, UIsendQueue;
 
     //constructor and game setup
-    public Game(MessageQueue<String> UIrecvQueue, MessageQueue<String> UIsendQueue) {
-        createSocket();
-        setThisPlayer();
+    public Game(MessageQueue<Message> UIrecvQueue, MessageQueue<Message> UIsendQueue) {
         createQueues();
+        createTransport();
+        setThisPlayer();
 
         players = new Vector<>();
 
@@ -53,13 +88,10 @@ public class Game {
     //get player ID of the user
     public int getMyPID() {
         for(Pair<byte[], String> player: players) {
-            if(player.getKey()[0] == thisPlayer.getKey()[0] &&
-                player.getKey()[1] == thisPlayer.getKey()[1] &&
-                player.getKey()[2] == thisPlayer.getKey()[2] &&
-                player.getKey()[3] == thisPlayer.getKey()[3]) {
-                    String fullName = player.getValue();
-                    String[] parts = fullName.split("#");
-                    return Integer.parseInt(parts[1]);
+            if(PeerAddress.equals(player.getKey(), thisPlayer.getKey())) {
+                String fullName = player.getValue();
+                String[] parts = fullName.split("#");
+                return Integer.parseInt(parts[1]);
             }
         }
         return 0;
@@ -75,12 +107,13 @@ public class Game {
         return players;
     }
 
-    //create UDP socket on port 8888
-    private void createSocket() {
-        try {
-            socket = new DatagramSocket(8888);
-        } catch (Exception e) {
-            e.printStackTrace();
+    //create UDP transport (port 8888 on all addresses unless -Dport/-Dbind say otherwise)
+    private void createTransport() {
+        InetSocketAddress bindAddress = BIND == null ? new InetSocketAddress(PORT) : new InetSocketAddress(BIND, PORT);
+        if("socket".equals(System.getProperty("transport"))) {
+            transport = new SocketTransport(bindAddress, sendQueue, serverRecvQueue, clientRecvQueue);
+        } else {
+            transport = new ChannelTransport(bindAddress, sendQueue, serverRecvQueue, clientRecvQueue);
         }
     }
 
@@ -89,13 +122,16 @@ public class Game {
         clientRecvQueue = new MessageQueue<>();
         serverRecvQueue = new MessageQueue<>();
         sendQueue = new MessageQueue<>();
-        reliableQueue = new MessageQueue<>();
     }
 
-    //set thisPlayer info (name, IP)
+    //set thisPlayer info (name, IP and port listened on), the bound address if there's one
     private void setThisPlayer() {
         try {
-            thisPlayer = new Pair<>(InetAddress.getLocalHost().getAddress(),
+            InetAddress IP = InetAddress.getLocalHost();
+            if(BIND != null && !InetAddress.getByName(BIND).isAnyLocalAddress()) {
+                IP = InetAddress.getByName(BIND);
+            }
+            thisPlayer = new Pair<>(PeerAddress.of(IP, transport.getLocalPort()),
                                     InetAddress.getLocalHost().getHostName());
         } catch (UnknownHostException e) {
             e.printStackTrace();
@@ -107,42 +143,30 @@ public class Game {
         return thisPlayer.getValue();
     }
 
-    //get user's IP
+    //get host address "x.x.x.x:port"
     public String getMyIP() {
-        String ret = "";
-        for(int i = 0; i < host.length - 1; i++) {
-            int num = (host[i] & 0xFF);
-            ret += (num + ".");
-        }
-        return ret + (host[host.length - 1] & 0xFF);
+        return PeerAddress.toString(host);
     }
 
-    //set host based on input string "x.x.x.x"
+    //set host based on input string "x.x.x.x" or "x.x.x.x:port" (port 8888 if not given)
     public void setHost(String host) {
-        String[] split = host.split("\\.");
-        for(int i = 0; i < 4;i++) {
-            this.host[i] = (byte) Integer.parseInt(split[i]);
-        }
+        this.host = PeerAddress.parse(host, Transport.PORT);
     }
 
     //set new host based on byte[]
-    void setHost(byte[] IP) {
-        this.host = IP;
+    void setHost(byte[] address) {
+        this.host = address;
     }
 
-    //get user's IP in byte[]
-    byte[] getThisPlayerIP() {
+    //get user's address (IP and port) in byte[]
+    byte[] getThisPlayerAddress() {
         return thisPlayer.getKey();
     }
 
     //set user as host
     public void setMeAsHost() {
-        try {
-            this.host = InetAddress.getLocalHost().getAddress();
-            players.add(thisPlayer);
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-        }
+        this.host = thisPlayer.getKey();
+        players.add(thisPlayer);
     }
 
     //set grid size
@@ -171,6 +195,14 @@ public class Game {
         return gridSize;
     }
 
+    //get size of a box in pixels (0 if the grid is not set yet)
+    public int getBoxSize() {
+        if(gridSize == 0) {
+            return 0;
+        }
+        return 600 / gridSize;
+    }
+
     //get fill percentage
     public int getFillPercentage() {
         return fillPercentage;
@@ -190,36 +222,95 @@ public class Game {
 
     //server thread
     public void spawnServerThread() {
-        serverTask = new ServerThread(serverRecvQueue, sendQueue, UIrecvQueue, players);
+        serverTask = new ServerThread(serverRecvQueue, sendQueue, UIrecvQueue, players, this);
         Thread serverThread = new Thread(serverTask);
         serverThread.start();
     }
 
-    //back up server thread (only spawned when user becomes host)
-    void spawnBackupServerThread() {
-        serverTask = new ServerThread(serverRecvQueue, sendQueue, UIrecvQueue, players, grid);
+    //back up server thread (only spawned when user becomes host), with the lock requests of the last state
+    //the old server sent if any, and the lock this user asked for without an answer yet (null if none)
+    void spawnBackupServerThread(byte[] snapshot, Message pendingLock) {
+        serverTask = new ServerThread(serverRecvQueue, sendQueue, UIrecvQueue, players, grid, snapshot, pendingLock, this);
         Thread serverThread = new Thread(serverTask);
         serverThread.start();
     }
 
-    //networking send thread
-    public void spawnSendThread() {
-        networkingSend = new NetworkingSend(sendQueue, socket, reliableQueue);
-        Thread sendThread = new Thread(networkingSend);
-        sendThread.start();
+    //networking thread(s)
+    public void spawnNetworkingThreads() {
+        transport.start();
+    }
+
+    //live score of a player on the server of this machine (0 if not hosting)
+    public int getServerScore(int player) {
+        return serverTask == null ? 0 : serverTask.getScore(player);
+    }
+
+    //boxes nobody owns yet on the server of this machine (0 if not hosting)
+    public int getServerFreeBoxCount() {
+        return serverTask == null ? 0 : serverTask.getFreeBoxCount();
+    }
+
+    //time from lock request to lock broadcast on the server of this machine (null if not hosting)
+    //for locks nobody else was close to and for locks that waited for competing requests
+    public LatencyHistogram getImmediateGrantLatency() {
+        return serverTask == null ? null : serverTask.getImmediateGrants();
+    }
+
+    public LatencyHistogram getContendedGrantLatency() {
+        return serverTask == null ? null : serverTask.getContendedGrants();
+    }
+
+    //allocations made while receiving so far (flat once the game is running)
+    public long getReceiveAllocationCount() {
+        return transport.getAllocationCount();
+    }
+
+    //stroke points the server of this machine sent to a player and left out for it (0 if not hosting)
+    public long getServerStrokePointsSent(int player) {
+        return serverTask == null ? 0 : serverTask.getStrokePointsSent(player);
+    }
+
+    public long getServerStrokePointsSkipped(int player) {
+        return serverTask == null ? 0 : serverTask.getStrokePointsSkipped(player);
+    }
+
+    //bytes sent to a machine so far, and to a player of the list
+    public long getBytesSent(byte[] address) {
+        return transport.getBytesSent(address);
+    }
+
+    public long getPlayerBytesSent(int index) {
+        return getBytesSent(players.get(index).getKey());
+    }
+
+    //resent reliable messages dropped by the networking (their ack got lost)
+    public long getDuplicateCount() {
+        return transport.getDuplicateCount();
+    }
+
+    //server clock - clock of this machine (ns, System.nanoTime() of both)
+    public long getClockOffset() {
+        return clientTask == null ? 0 : clientTask.getClock().getOffset();
+    }
+
+    //how far the estimate of the server clock can be off (ns)
+    public long getClockErrorBound() {
+        return clientTask == null ? 0 : clientTask.getClock().getErrorBound();
+    }
+
+    //round trip time estimate to a machine (acks on the server, also pings on clients)
+    public RttEstimator getRTT(byte[] address) {
+        return transport.getRTT(address);
     }
 
-    //networking receive thread
-    public void spawnReceiveThread() {
-        networkingRecv = new NetworkingRecv(sendQueue, socket, serverRecvQueue, clientRecvQueue, reliableQueue);
-        Thread recvThread = new Thread(networkingRecv);
-        recvThread.start();
+    //round trip time estimate to a player of the list
+    public RttEstimator getPlayerRTT(int index) {
+        return getRTT(players.get(index).getKey());
     }
 
     //stop all threads when the game ends
     public void stopAllThreads() {
-        networkingRecv.stopThread();
-        networkingSend.stopThread();
+        transport.stop();
         serverTask.stopThread();
         clientTask.stopThread();
     }
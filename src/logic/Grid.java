@@ -1,34 +1,122 @@
 package logic;
 
+import java.util.Arrays;
+
 /**
  *  Logic
  *  Grid: The state of the board
+ *  Everything is kept in flat arrays indexed by box id (x * size + y), so big grids
+ *  don't need one object per box: owners, number of drawn units, and drawn units as bits
+ *  (one row of a box after another, each row starting on a new long)
  */
 public class Grid {
-    private Box[][] grid;
+    private int size;
+    private int boxSize;
+    private int wordsPerRow;
+    private int wordsPerBox;
+
+    private byte[] owners;
+    private int[] counts;
+    private long[] units;
 
     //constructor
     Grid(int gridSize, int boxSize) {
         createGrid(gridSize, boxSize);
     }
 
-    //get box based on x and y
+    //get box based on x and y (a view over the grid)
     public Box getBox(int x, int y) {
-        return grid[x][y];
+        return new Box(this, x * size + y);
+    }
+
+    //get owner of a box (default = 0, no owner), IDs up to 255 fit in the byte
+    public int getOwner(int x, int y) {
+        return owners[x * size + y] & 0xFF;
+    }
+
+    //set owner of a box
+    public void setOwner(int x, int y, int owner) {
+        owners[x * size + y] = (byte) owner;
     }
 
     //create the initial grid
     private void createGrid(int gridSize, int boxSize) {
-        grid = new Box[gridSize][gridSize];
-        for(int i = 0; i < gridSize; i++) {
-            for(int j = 0; j < gridSize; j++) {
-                grid[i][j] = new Box(boxSize);
-            }
-        }
+        this.size = gridSize;
+        this.boxSize = boxSize;
+        wordsPerRow = (boxSize + 63) / 64;
+        wordsPerBox = boxSize * wordsPerRow;
+
+        owners = new byte[gridSize * gridSize];
+        counts = new int[gridSize * gridSize];
+        units = new long[gridSize * gridSize * wordsPerBox];
     }
 
     //get grid size
     int size() {
-        return grid.length;
+        return size;
+    }
+
+    //owner of a box by id
+    int getOwner(int id) {
+        return owners[id] & 0xFF;
+    }
+
+    void setOwner(int id, int owner) {
+        owners[id] = (byte) owner;
+    }
+
+    //set units of a box that are drawn on UI (brushSize x brushSize square, clipped to the box)
+    void setUnit(int id, int posX, int posY, int brushSize) {
+        int endX = Math.min(posX + brushSize, boxSize);
+        int startY = Math.max(posY, 0);
+        int endY = Math.min(posY + brushSize, boxSize);
+        if(startY >= endY) {
+            return;
+        }
+
+        int firstWord = startY >>> 6;
+        int lastWord = (endY - 1) >>> 6;
+        int count = 0;
+        for(int i = Math.max(posX, 0); i < endX; i++) {
+            int row = id * wordsPerBox + i * wordsPerRow;
+            for(int word = firstWord; word <= lastWord; word++) {
+                long mask = -1L;
+                if(word == firstWord) {
+                    mask &= -1L << (startY & 63);
+                }
+                if(word == lastWord) {
+                    mask &= -1L >>> (63 - ((endY - 1) & 63));
+                }
+                long old = units[row + word];
+                count += Long.bitCount(mask & ~old);
+                units[row + word] = old | mask;
+            }
+        }
+        counts[id] += count;
+    }
+
+    //clear all units of a box
+    void clearBox(int id) {
+        Arrays.fill(units, id * wordsPerBox, (id + 1) * wordsPerBox, 0L);
+        counts[id] = 0;
+    }
+
+    //fill all units of a box
+    void fillBox(int id) {
+        Arrays.fill(units, id * wordsPerBox, (id + 1) * wordsPerBox, -1L);
+
+        //bits after the end of each row are not part of the box
+        int extraBits = wordsPerRow * 64 - boxSize;
+        if(extraBits > 0) {
+            for(int row = 0; row < boxSize; row++) {
+                units[id * wordsPerBox + row * wordsPerRow + wordsPerRow - 1] = -1L >>> extraBits;
+            }
+        }
+        counts[id] = boxSize * boxSize;
+    }
+
+    //percentage filled of a box
+    double getPercentageFilled(int id) {
+        return ((double)counts[id] / (boxSize * boxSize) * 100);
     }
 }
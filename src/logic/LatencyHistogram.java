@@ -0,0 +1,64 @@
+package logic;
+
+/**
+ *  Logic
+ *  Counts of latencies by power of 2 of microseconds (bucket i = [2^(i-1), 2^i) us, bucket 0 = under 1us)
+ *  Cheap enough to record every sample, precise enough for percentiles
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    //add a latency (ns)
+    public synchronized void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        counts[bucket]++;
+        count++;
+        total += micros;
+        max = Math.max(max, micros);
+    }
+
+    //number of latencies recorded
+    public synchronized long getCount() {
+        return count;
+    }
+
+    //average (us)
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    //biggest one (us)
+    public synchronized long getMax() {
+        return max;
+    }
+
+    //latency under which a fraction of them are, e.g. 0.99 (us, upper bound of its bucket)
+    public synchronized long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank && seen > 0) {
+                return Math.min(1L << i, max);
+            }
+        }
+        return max;
+    }
+
+    //count of each bucket
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d mean=%.0fus p50=%dus p99=%dus max=%dus",
+                count, getMean(), getPercentile(0.5), getPercentile(0.99), max);
+    }
+}
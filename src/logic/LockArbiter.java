@@ -0,0 +1,137 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *  Logic
+ *  Decides who gets a box when several players ask for it at about the same time
+ *  A request on a free box that nobody else is close to can be granted right away,
+ *  otherwise it opens a window, every request on that box until the window closes competes,
+ *  and the one with the earliest timestamp wins
+ *  Requests are kept by box id (only the earliest one per box), windows are closed in deadline order
+ */
+class LockArbiter {
+    //a player counts as close to a box if it did something in it or next to it in the last 500ms
+    private static final long ACTIVE_TIME = 500000000L;
+    private static final int MAX_PLAYERS = 255;
+
+    private final int gridSize;
+
+    //earliest request of each box with an open window (null = no window)
+    private final LockRequestObj[] earliest;
+
+    //request that opened each window, ordered by when the window closes
+    private final PriorityQueue<LockRequestObj> windows;
+
+    //box each player (by ID) was last active in and when (nanoTime)
+    private final int[] activeBox = new int[MAX_PLAYERS + 1];
+    private final long[] activeTime = new long[MAX_PLAYERS + 1];
+
+    //constructor
+    LockArbiter(int gridSize) {
+        this.gridSize = gridSize;
+        earliest = new LockRequestObj[gridSize * gridSize];
+        windows = new PriorityQueue<>(16, (a, b) -> Long.compare(a.getDeadline(), b.getDeadline()));
+        for(int i = 0; i <= MAX_PLAYERS; i++) {
+            activeBox[i] = -1;
+        }
+    }
+
+    //a player drew/asked for something in a box
+    void setActive(int player, int x, int y) {
+        if(player <= 0 || player > MAX_PLAYERS || x < 0 || y < 0 || x >= gridSize || y >= gridSize) {
+            return;
+        }
+        activeBox[player] = x * gridSize + y;
+        activeTime[player] = System.nanoTime();
+    }
+
+    //box a player is active in (x * gridSize + y, -1 = not active lately)
+    int getActiveBox(int player) {
+        if(player <= 0 || player > MAX_PLAYERS || activeBox[player] < 0 ||
+                System.nanoTime() - activeTime[player] > ACTIVE_TIME) {
+            return -1;
+        }
+        return activeBox[player];
+    }
+
+    //other players active in the box or the boxes around it (put in players, returns how many)
+    int getPlayersNear(int x, int y, int player, int[] players) {
+        long now = System.nanoTime();
+        int count = 0;
+        for(int i = 1; i <= MAX_PLAYERS; i++) {
+            if(i == player || activeBox[i] < 0 || now - activeTime[i] > ACTIVE_TIME) {
+                continue;
+            }
+            int boxX = activeBox[i] / gridSize;
+            int boxY = activeBox[i] % gridSize;
+            if(Math.abs(boxX - x) <= 1 && Math.abs(boxY - y) <= 1 && count < players.length) {
+                players[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    //true if requests on the box are already competing
+    boolean hasWindow(int x, int y) {
+        return earliest[x * gridSize + y] != null;
+    }
+
+    //add a request, open a window (in ns) if it's the first one on the box
+    void add(LockRequestObj request, long window) {
+        int id = request.getX() * gridSize + request.getY();
+        LockRequestObj current = earliest[id];
+        if(current == null) {
+            request.setDeadline(request.getServerTime() + window);
+            earliest[id] = request;
+            windows.add(request);
+        } else if(request.getTime() < current.getTime()) {
+            earliest[id] = request;
+        }
+    }
+
+    //how long until the next window closes (ms, at most max)
+    long nextTimeout(long max) {
+        LockRequestObj first = windows.peek();
+        if(first == null) {
+            return max;
+        }
+        long remaining = first.getDeadline() - System.nanoTime();
+        if(remaining <= 0) {
+            return 0;
+        }
+        return Math.min((remaining + 999999) / 1000000, max);
+    }
+
+    //winner of the next window that is closed (null if none is closed yet)
+    LockRequestObj poll() {
+        LockRequestObj first = windows.peek();
+        if(first == null || System.nanoTime() < first.getDeadline()) {
+            return null;
+        }
+        windows.poll();
+
+        int id = first.getX() * gridSize + first.getY();
+        LockRequestObj winner = earliest[id];
+        earliest[id] = null;
+        return winner;
+    }
+
+    //earliest request of every box with an open window
+    List<LockRequestObj> getRequests() {
+        List<LockRequestObj> requests = new ArrayList<>();
+        for(LockRequestObj request: earliest) {
+            if(request != null) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    //number of boxes with an open window
+    int size() {
+        return windows.size();
+    }
+}
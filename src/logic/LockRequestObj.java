@@ -9,15 +9,21 @@ class LockRequestObj {
     private long time;
     private int owner;
     private long serverTime;
+    private long deadline;
 
     //create the request from message
-    //serverTime is to check when it is received
+    //serverTime is to check when it is received (nanoTime)
     LockRequestObj(int x, int y, long time, int owner) {
         this.x = x;
         this.y = y;
         this.time = time;
         this.owner = owner;
-        this.serverTime = System.currentTimeMillis();
+        this.serverTime = System.nanoTime();
+    }
+
+    //when the window opened by this request closes (nanoTime)
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
     }
 
     //getters
@@ -40,4 +46,8 @@ class LockRequestObj {
     long getServerTime() {
         return serverTime;
     }
+
+    long getDeadline() {
+        return deadline;
+    }
 }
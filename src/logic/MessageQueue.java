@@ -3,6 +3,7 @@ package logic;
 import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
@@ -13,6 +14,9 @@ public class MessageQueue<T> implements Iterable<T> {
 
     private BlockingQueue<T> queue;
 
+    //called every time a new item is produced (if set)
+    private volatile Runnable onProduce;
+
     //constructor
     public MessageQueue() {
         queue = new LinkedBlockingQueue<>();
@@ -21,23 +25,63 @@ public class MessageQueue<T> implements Iterable<T> {
     //add new item to the tail of the queue
     public void produce(T item) {
         queue.add(item);
+
+        Runnable onProduce = this.onProduce;
+        if(onProduce != null) {
+            onProduce.run();
+        }
     }
 
-    //remove head of the queue
+    //remove head of the queue (null if empty)
     public T consume() {
         return queue.poll();
     }
 
+    //remove head of the queue, wait until there's something (null if interrupted)
+    public T take() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    //remove head of the queue, wait at most timeout ms (null if nothing arrived)
+    public T poll(long timeout) {
+        try {
+            return queue.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     //peek at the head of the queue without removing the item
     public T peek() {
         return queue.peek();
     }
 
+    //check if there's nothing in the queue
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    //number of items waiting
+    public int size() {
+        return queue.size();
+    }
+
     //remove all items that satisfy a certain condition
     public void removeIf(Predicate<? super T> filter) {
         queue.removeIf(filter);
     }
 
+    //set what to do when a new item is produced (e.g. wake up whoever waits on it)
+    public void setOnProduce(Runnable onProduce) {
+        this.onProduce = onProduce;
+    }
+
     //iterator
     @Override
     public Iterator<T> iterator() {
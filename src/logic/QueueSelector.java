@@ -0,0 +1,59 @@
+package logic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Logic
+ *  Lets one thread sleep on several MessageQueues at once
+ *  and wake up as soon as any of them gets a new item
+ */
+public class QueueSelector {
+
+    private final Object lock = new Object();
+    private final MessageQueue<?>[] queues;
+
+    //constructor, attach itself to every queue
+    public QueueSelector(MessageQueue<?>... queues) {
+        this.queues = queues;
+        for(MessageQueue<?> queue: queues) {
+            queue.setOnProduce(this::wakeup);
+        }
+    }
+
+    //wait at most timeout ms until one of the queues has something (true if there is)
+    public boolean select(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (lock) {
+            while(!isAnyReady()) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    //called by the queues when a new item is produced
+    public void wakeup() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    //check if any of the queues has something
+    private boolean isAnyReady() {
+        for(MessageQueue<?> queue: queues) {
+            if(!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
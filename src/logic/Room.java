@@ -0,0 +1,81 @@
+package logic;
+
+import javafx.util.Pair;
+import networking.Message;
+import networking.Transport;
+
+import java.util.Vector;
+
+/**
+ *  Logic
+ *  One game of a room server: a ServerThread that doesn't have its own thread,
+ *  run by the one worker the room belongs to, so nothing inside it is shared between threads
+ */
+class Room {
+    private final int id;
+    private final ServerThread server;
+    private final MessageQueue<Message> recvQueue = new MessageQueue<>();
+
+    //nobody looks at a room server, what the server tells its UI is dropped
+    private final MessageQueue<Message> UIrecvQueue = new MessageQueue<>();
+
+    //constructor, everything the room sends goes on the shared send queue
+    Room(int id, MessageQueue<Message> sendQueue, Transport transport) {
+        this.id = id;
+        server = new ServerThread(recvQueue, sendQueue, UIrecvQueue, new Vector<Pair<byte[], String>>(), null);
+        server.setRoom(id, transport::getRTT);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    //message for this room (from the networking thread)
+    void produce(Message message) {
+        recvQueue.produce(message);
+    }
+
+    //called every time a message for this room arrives
+    void setOnProduce(Runnable onProduce) {
+        recvQueue.setOnProduce(onProduce);
+    }
+
+    //everything received so far and what is due, starts the game once enough players are in (worker thread)
+    void run() {
+        server.runPending();
+
+        Message message = UIrecvQueue.consume();
+        while(message != null) {
+            message.recycle();
+            message = UIrecvQueue.consume();
+        }
+
+        if(!server.isStarted() && server.getPlayerCount() >= RoomServer.ROOM_PLAYERS) {
+            server.startGame(RoomServer.BRUSH_SIZE, RoomServer.GRID_SIZE, RoomServer.FILL_PERCENTAGE);
+        }
+    }
+
+    //how long until something is due (ms, at most max)
+    long nextTimeout(long max) {
+        return Math.min(server.nextTimeout(), max);
+    }
+
+    //the game ended, the room can go
+    boolean isOver() {
+        return server.isOver();
+    }
+
+    //number of players connected
+    int getPlayerCount() {
+        return server.getPlayerCount();
+    }
+
+    //time from lock request to lock broadcast, granted right away or after a window
+    LatencyHistogram getImmediateGrants() {
+        return server.getImmediateGrants();
+    }
+
+    LatencyHistogram getContendedGrants() {
+        return server.getContendedGrants();
+    }
+}
@@ -0,0 +1,115 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *  Logic
+ *  Rooms of a room server by id, shared by the networking thread (looks up a room for every packet)
+ *  and the workers (take their rooms out once over)
+ *  Open addressing on plain arrays like PeerMap, so the lookup doesn't box the room id
+ */
+class RoomMap {
+    private int[] keys = new int[16];
+    private Room[] values = new Room[16];
+    private int count = 0;
+
+    //room with that id (null if none)
+    synchronized Room get(int id) {
+        int index = find(id);
+        return index >= 0 ? values[index] : null;
+    }
+
+    //add a room (replaces the one that had its id)
+    synchronized void put(Room room) {
+        int index = find(room.getId());
+        if(index >= 0) {
+            values[index] = room;
+            return;
+        }
+
+        //keep the table at most half full
+        if(2 * (count + 1) > keys.length) {
+            grow();
+        }
+        index = slot(room.getId(), keys.length);
+        while(values[index] != null) {
+            index = (index + 1) & (keys.length - 1);
+        }
+        keys[index] = room.getId();
+        values[index] = room;
+        count++;
+    }
+
+    //take a room out, only if its id wasn't given to a newer room already
+    synchronized void remove(Room room) {
+        int index = find(room.getId());
+        if(index < 0 || values[index] != room) {
+            return;
+        }
+        values[index] = null;
+        count--;
+
+        //move back the rooms after it that would not be found anymore with a hole in front of them
+        int next = (index + 1) & (keys.length - 1);
+        while(values[next] != null) {
+            int wanted = slot(keys[next], keys.length);
+            if(((next - wanted) & (keys.length - 1)) >= ((next - index) & (keys.length - 1))) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                values[next] = null;
+                index = next;
+            }
+            next = (next + 1) & (keys.length - 1);
+        }
+    }
+
+    //every room (a copy, for the status)
+    synchronized List<Room> values() {
+        List<Room> rooms = new ArrayList<>(count);
+        for(Room room: values) {
+            if(room != null) {
+                rooms.add(room);
+            }
+        }
+        return rooms;
+    }
+
+    //where a room is in the table (-1 if none)
+    private int find(int id) {
+        int index = slot(id, keys.length);
+        while(values[index] != null) {
+            if(keys[index] == id) {
+                return index;
+            }
+            index = (index + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    //first slot to look at, room ids are often small and close to each other so the bits are mixed first
+    private static int slot(int id, int length) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (length - 1);
+    }
+
+    //double the table and put every room again
+    private void grow() {
+        int[] oldKeys = keys;
+        Room[] oldValues = values;
+        keys = new int[2 * oldKeys.length];
+        values = new Room[2 * oldValues.length];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != null) {
+                int index = slot(oldKeys[i], keys.length);
+                while(values[index] != null) {
+                    index = (index + 1) & (keys.length - 1);
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+        Arrays.fill(oldValues, null);
+    }
+}
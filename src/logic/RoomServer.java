@@ -0,0 +1,151 @@
+package logic;
+
+import networking.ChannelTransport;
+import networking.Message;
+import networking.SocketTransport;
+import networking.Transport;
+
+import java.net.InetSocketAddress;
+
+/**
+ *  Logic
+ *  Server hosting many games at once on one port, without UI
+ *  Players pick a room (-Droom=N on their side), the networking thread hands each message to its room
+ *  and the rooms are shared between a few worker threads (a room always runs on the same one)
+ *  A room is created by the first player connecting to it, starts once enough players are in,
+ *  and goes away when its game is over
+ *  Usage: RoomServer (-Dport=8888, -Dbind, -Dworkers=cores, -DroomPlayers=4, -DbrushSize=10, -DgridSize=5,
+ *  -DfillPercentage=30, -Dtransport=socket)
+ */
+public class RoomServer {
+    //players needed to start a room and the settings it starts with (same defaults as the lobby)
+    static final int ROOM_PLAYERS = Integer.getInteger("roomPlayers", 4);
+    static final int BRUSH_SIZE = Integer.getInteger("brushSize", 10);
+    static final int GRID_SIZE = Integer.getInteger("gridSize", 5);
+    static final int FILL_PERCENTAGE = Integer.getInteger("fillPercentage", 30);
+
+    //threads running the rooms
+    private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+
+    //print what's going on every 10s
+    private static final long STATUS_INTERVAL = 10000;
+
+    //queues between networking and rooms
+    private MessageQueue<Message> recvQueue, clientRecvQueue, sendQueue;
+    private Transport transport;
+
+    //rooms by id (created by the networking thread, taken out by their worker once over) and the workers running them
+    private final RoomMap rooms = new RoomMap();
+    private final RoomWorker[] workers;
+    private int nextWorker = 0;
+
+    //constructor, open the UDP transport on an address/port (port 0 = any free port)
+    public RoomServer(InetSocketAddress bindAddress) {
+        recvQueue = new MessageQueue<>();
+        clientRecvQueue = new MessageQueue<>();
+        sendQueue = new MessageQueue<>();
+        if("socket".equals(System.getProperty("transport"))) {
+            transport = new SocketTransport(bindAddress, sendQueue, recvQueue, clientRecvQueue);
+        } else {
+            transport = new ChannelTransport(bindAddress, sendQueue, recvQueue, clientRecvQueue);
+        }
+
+        //messages are handed to their room as soon as the networking thread puts them on the queue
+        recvQueue.setOnProduce(this::route);
+        clientRecvQueue.setOnProduce(this::dropClientMessages);
+
+        workers = new RoomWorker[Math.max(WORKERS, 1)];
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new RoomWorker(rooms);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String bind = System.getProperty("bind");
+        int port = Integer.getInteger("port", Transport.PORT);
+        RoomServer server = new RoomServer(bind == null ? new InetSocketAddress(port) : new InetSocketAddress(bind, port));
+        server.start();
+        System.out.println("Room server on port " + server.getLocalPort() + " with " + server.workers.length + " workers");
+
+        while(true) {
+            Thread.sleep(STATUS_INTERVAL);
+            System.out.println(server.getStatus());
+        }
+    }
+
+    //start workers and networking
+    public void start() {
+        for(int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "room-worker-" + i);
+            thread.start();
+        }
+        transport.start();
+    }
+
+    //stop all threads
+    public void stop() {
+        transport.stop();
+        for(RoomWorker worker: workers) {
+            worker.stopThread();
+        }
+    }
+
+    //UDP port listened on
+    public int getLocalPort() {
+        return transport.getLocalPort();
+    }
+
+    //number of rooms running
+    public int getRoomCount() {
+        int count = 0;
+        for(RoomWorker worker: workers) {
+            count += worker.getRoomCount();
+        }
+        return count;
+    }
+
+    //rooms, players and the slowest lock grants of all rooms
+    public String getStatus() {
+        int players = 0;
+        long immediate = 0;
+        long contended = 0;
+        for(Room room: rooms.values()) {
+            players += room.getPlayerCount();
+            immediate = Math.max(immediate, room.getImmediateGrants().getPercentile(0.99));
+            contended = Math.max(contended, room.getContendedGrants().getPercentile(0.99));
+        }
+        return String.format("rooms=%d players=%d grant p99 (worst room): right away=%dus contended=%dus",
+                getRoomCount(), players, immediate, contended);
+    }
+
+    //hand every received message to its room (networking thread)
+    //a connection to a room that doesn't exist or whose game is over opens a new one, anything else for it is dropped
+    private void route() {
+        Message message = recvQueue.consume();
+        while(message != null) {
+            Room room = rooms.get(message.getRoom());
+            if((room == null || room.isOver()) && message.getType() == Message.CONNECT) {
+                room = new Room(message.getRoom(), sendQueue, transport);
+                rooms.put(room);
+                workers[nextWorker].add(room);
+                nextWorker = (nextWorker + 1) % workers.length;
+            }
+
+            if(room == null || room.isOver()) {
+                message.recycle();
+            } else {
+                room.produce(message);
+            }
+            message = recvQueue.consume();
+        }
+    }
+
+    //a room server is nobody's client
+    private void dropClientMessages() {
+        Message message = clientRecvQueue.consume();
+        while(message != null) {
+            message.recycle();
+            message = clientRecvQueue.consume();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ *  Logic
+ *  Thread running a share of the rooms of a room server
+ *  A room always stays on the worker it was given, so its state is only ever touched by one thread
+ *  Sleeps until a message arrives for one of its rooms or something of one of them is due
+ */
+class RoomWorker implements Runnable {
+    //wake up at least every 100ms to check if stopped
+    private final long IDLE_TIMEOUT = 100;
+
+    //all rooms of the server by id (rooms that ended are taken out)
+    private final RoomMap allRooms;
+
+    //rooms given to this worker, taken in by the worker thread itself
+    private final MessageQueue<Room> newRooms = new MessageQueue<>();
+    private final ArrayList<Room> rooms = new ArrayList<>();
+    private volatile int roomCount = 0;
+
+    //thread state
+    private volatile boolean isRunning = true;
+    private boolean woken = false;
+
+    //constructor
+    RoomWorker(RoomMap allRooms) {
+        this.allRooms = allRooms;
+    }
+
+    //give a room to this worker (from any thread)
+    void add(Room room) {
+        room.setOnProduce(this::wakeup);
+        newRooms.produce(room);
+        wakeup();
+    }
+
+    //something arrived for one of the rooms
+    synchronized void wakeup() {
+        woken = true;
+        notifyAll();
+    }
+
+    //main loop of the worker, run when the thread starts
+    @Override
+    public void run() {
+        try {
+            while(isRunning) {
+                Room room = newRooms.consume();
+                while(room != null) {
+                    rooms.add(room);
+                    room = newRooms.consume();
+                }
+
+                //run every room, games that ended or failed are dropped
+                long timeout = IDLE_TIMEOUT;
+                Iterator<Room> iterator = rooms.iterator();
+                while(iterator.hasNext()) {
+                    room = iterator.next();
+                    if(!runRoom(room) || room.isOver()) {
+                        iterator.remove();
+                        allRooms.remove(room);
+                    } else {
+                        timeout = room.nextTimeout(timeout);
+                    }
+                }
+                roomCount = rooms.size();
+
+                //sleep unless a message came in while the rooms were running
+                synchronized(this) {
+                    if(!woken && timeout > 0) {
+                        wait(timeout);
+                    }
+                    woken = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //run one room, a room that fails is closed without taking the other rooms of the worker with it
+    private boolean runRoom(Room room) {
+        try {
+            room.run();
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Room " + room.getId() + " closed");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    //stop thread at the end
+    void stopThread() {
+        isRunning = false;
+        wakeup();
+    }
+
+    //number of rooms running on this worker
+    int getRoomCount() {
+        return roomCount;
+    }
+}
@@ -2,10 +2,15 @@ package logic;
 
 import javafx.concurrent.Task;
 import javafx.util.Pair;
+import networking.Message;
+import networking.PeerAddress;
+import networking.RttEstimator;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Vector;
+import java.util.function.Function;
 
 /**
  *  Logic
@@ -13,8 +18,8 @@ import java.util.Vector;
  */
 public class ServerThread extends Task<Void> {
     //queues for communication channels
-    private MessageQueue<Pair<byte[], String>> recvQueue, sendQueue;
-    private MessageQueue<String> UIrecvQueue;
+    private MessageQueue<Message> recvQueue, sendQueue;
+    private MessageQueue<Message> UIrecvQueue;
 
     //list of players
     private Vector<Pair<byte[], String>> players;
@@ -22,45 +27,122 @@ public class ServerThread extends Task<Void> {
     //game state
     private int[][] grid;
     private boolean isRunning = true;
+    private volatile boolean isOver = false;
 
-    //lock requests to solve conflicts
-    private Queue<LockRequestObj> lockRequests;
+    //room of a room server (0 = the only game of this machine), put on everything sent
+    private int room = 0;
+
+    //live standings: boxes owned by each player (by ID, up to 255) and boxes nobody owns
+    private final int MAX_PLAYERS = 255;
+    private int[] scores = new int[MAX_PLAYERS + 1];
+    private int freeBoxes = 0;
+
+    //lock requests to solve conflicts (created with the grid)
+    private LockArbiter lockRequests;
+
+    //wait at most 20ms (ns) before resolving a contended lock request, wake up at least every 100ms to check if stopped
+    private final long LOCK_WINDOW = Game.LOCK_WINDOW * 1000000;
+    private final long IDLE_TIMEOUT = 100;
+
+    //everyone hears from the server every 100ms, the player next in line to host gets a snapshot of the state
+    //instead (when it changed, at least every second), versions tell newer snapshots from older ones
+    private final long HEARTBEAT_INTERVAL = Game.HEARTBEAT_INTERVAL;
+    private final long SNAPSHOT_REFRESH = 1000;
+    private long lastHeartbeat = System.currentTimeMillis();
+    private long lastSnapshot = 0;
+    private long snapshotVersion = 0;
+    private boolean stateChanged = true;
+
+    //how far the clock of each player (by ID) may be off, as sent with its last lock request (ns, -1 = unknown)
+    //and where its messages come from, IP and port (to find its round trip time)
+    private long[] clockErrors = new long[MAX_PLAYERS + 1];
+    private byte[][] playerIPs = new byte[MAX_PLAYERS + 1][];
+    private int[] nearPlayers = new int[MAX_PLAYERS];
+
+    //time from lock request to lock broadcast, for requests granted right away and after a window
+    private LatencyHistogram immediateGrants = new LatencyHistogram();
+    private LatencyHistogram contendedGrants = new LatencyHistogram();
+
+    //round trip time estimate to a player address (null = unknown)
+    private Function<byte[], RttEstimator> rtts;
+
+    //strokes of all players are sent to everyone once per tick
+    private StrokeBatcher strokes = new StrokeBatcher(Game.STROKE_TICK, Message.TO_CLIENT, Game.STROKE_SIMPLIFY);
+
+    //which part of those strokes each player gets
+    private StrokeFanOut fanOut = new StrokeFanOut(Game.STROKE_ECHO, Game.STROKE_THIN, Game.STROKE_RADIUS);
 
     //initial server constructor
-    ServerThread(MessageQueue<Pair<byte[], String>> recvQueue,
-                 MessageQueue<Pair<byte[], String>> sendQueue,
-                 MessageQueue<String> UIrecvQueue,
-                 Vector<Pair<byte[], String>> players) {
+    ServerThread(MessageQueue<Message> recvQueue,
+                 MessageQueue<Message> sendQueue,
+                 MessageQueue<Message> UIrecvQueue,
+                 Vector<Pair<byte[], String>> players,
+                 Game game) {
         this.recvQueue = recvQueue;
         this.sendQueue = sendQueue;
         this.UIrecvQueue = UIrecvQueue;
         this.players = players;
-        lockRequests = new ArrayDeque<>();
+        this.rtts = game == null ? null : game::getRTT;
+        Arrays.fill(clockErrors, -1);
     }
 
-    //back up server constructor
-    ServerThread(MessageQueue<Pair<byte[], String>> recvQueue,
-                 MessageQueue<Pair<byte[], String>> sendQueue,
-                 MessageQueue<String> UIrecvQueue,
+    //back up server constructor, lock requests from the last snapshot of the old server if there is one
+    ServerThread(MessageQueue<Message> recvQueue,
+                 MessageQueue<Message> sendQueue,
+                 MessageQueue<Message> UIrecvQueue,
                  Vector<Pair<byte[], String>> players,
-                 Grid grid) {
+                 Grid grid,
+                 byte[] snapshot,
+                 Message pendingLock,
+                 Game game) {
         this.recvQueue = recvQueue;
         this.sendQueue = sendQueue;
         this.UIrecvQueue = UIrecvQueue;
         this.players = players;
-        lockRequests = new ArrayDeque<>();
+        this.rtts = game == null ? null : game::getRTT;
+        Arrays.fill(clockErrors, -1);
         createGrid(grid);
+        restore(StateSnapshot.read(snapshot), pendingLock);
     }
 
     //when back up server goes online, it copies whatever the client of the same machine is having
     private void createGrid(Grid gameGrid) {
         grid = new int[gameGrid.size()][gameGrid.size()];
+        freeBoxes = gameGrid.size() * gameGrid.size();
+        lockRequests = new LockArbiter(gameGrid.size());
+        strokes.setBoxSize(600 / gameGrid.size());
         for(int i = 0; i < gameGrid.size(); i++) {
             for(int j = 0; j < gameGrid.size(); j++) {
-                Box box = gameGrid.getBox(i, j);
-                grid[i][j] = box.getOwner();
+                setOwner(i, j, gameGrid.getOwner(i, j));
+            }
+        }
+    }
+
+    //take over from the old server: the owners are the ones of this player's grid, which got every lock and
+    //release the old server broadcast (a snapshot can be up to a heartbeat older), lock requests still waiting
+    //come from the snapshot (their windows start over)
+    private void restore(StateSnapshot snapshot, Message pendingLock) {
+        //the box this player drew in before its lock was granted is asked for again, like everyone else's
+        if(pendingLock != null && isValidBox(pendingLock)
+                && grid[pendingLock.getX()][pendingLock.getY()] == pendingLock.getPlayer()) {
+            setOwner(pendingLock.getX(), pendingLock.getY(), 0);
+        }
+
+        if(snapshot == null || snapshot.getGridSize() != grid.length) {
+            return;
+        }
+        //their timestamps are in the old server clock: keep their order, but stamp them now in this one,
+        //ahead of every request that arrives from here on
+        LockRequestObj[] locks = snapshot.getLocks().clone();
+        Arrays.sort(locks, Comparator.comparingLong(LockRequestObj::getTime));
+        long now = System.nanoTime();
+        for(int i = 0; i < locks.length; i++) {
+            LockRequestObj lock = locks[i];
+            if(grid[lock.getX()][lock.getY()] == 0) {
+                lockRequests.add(new LockRequestObj(lock.getX(), lock.getY(), now + i, lock.getOwner()), LOCK_WINDOW);
             }
         }
+        snapshotVersion = snapshot.getVersion();
     }
 
     //main loop of the server, run when the thread starts
@@ -68,8 +150,14 @@ public class ServerThread extends Task<Void> {
     protected Void call() {
         try {
             while(isRunning) {
-                processRecv();
+                processRecv(recvQueue.poll(nextTimeout()));
                 resolveLockConflicts();
+                if(strokes.isDue()) {
+                    broadcastStrokes();
+                }
+                if(isHeartbeatDue()) {
+                    sendHeartbeats();
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -83,102 +171,190 @@ public class ServerThread extends Task<Void> {
         isRunning = false;
     }
 
-    //resolve any conflict of multiple box-lock requests on the same box
-    private void resolveLockConflicts() {
-        LockRequestObj obj = lockRequests.peek();
-        if(obj == null) {
-            return;
+    //one round of a server sharing its thread with other rooms: everything received so far, then what is due
+    void runPending() {
+        Message message = recvQueue.consume();
+        while(message != null) {
+            processRecv(message);
+            message = recvQueue.consume();
+        }
+        resolveLockConflicts();
+        if(strokes.isDue()) {
+            broadcastStrokes();
         }
+        if(isHeartbeatDue()) {
+            sendHeartbeats();
+        }
+    }
+
+    //room of a room server, and where round trip times come from without a Game
+    void setRoom(int room, Function<byte[], RttEstimator> rtts) {
+        this.room = room;
+        this.rtts = rtts;
+    }
 
-        //wait for 20ms then resolve the head of the queue (oldest request)
-        long currentTime = System.currentTimeMillis();
-        if(currentTime - obj.getServerTime() > 20) {
-            resolveConflictAndRemoveRequests();
+    //true once the game started, and once it's over
+    boolean isStarted() {
+        return lockRequests != null;
+    }
+
+    boolean isOver() {
+        return isOver;
+    }
+
+    //number of players connected
+    int getPlayerCount() {
+        return players.size();
+    }
+
+    //start the game with everyone connected so far (what the host does from the lobby, for room servers)
+    void startGame(int brushSize, int gridSize, int fillPercentage) {
+        String text = brushSize + "#" + gridSize + "#" + fillPercentage + "#" + System.currentTimeMillis();
+        int playerID = 1;
+        for(Pair<byte[], String> player: players) {
+            byte[] address = player.getKey();
+            text += "#" + address[0] + "#" + address[1] + "#" + address[2] + "#" + address[3]
+                    + "#" + PeerAddress.getPort(address) + "#" + player.getValue() + "#" + playerID;
+            playerID++;
         }
+        messageStartMessage(new Message(Message.TO_SERVER, Message.START_GAME, text));
     }
 
-    //resolve by checking if there's any other request of the same box in the queue
-    private void resolveConflictAndRemoveRequests() {
-        LockRequestObj obj = lockRequests.poll();
-        if(obj == null) {
-            return;
+    //how long to wait for new messages until the oldest lock request or the next heartbeat is due
+    long nextTimeout() {
+        long timeout = Math.max(HEARTBEAT_INTERVAL - (System.currentTimeMillis() - lastHeartbeat), 0);
+        timeout = Math.min(timeout, IDLE_TIMEOUT);
+        if(lockRequests == null) {
+            return strokes.nextTimeout(timeout);
         }
+        return strokes.nextTimeout(lockRequests.nextTimeout(timeout));
+    }
+
+    //time to tell the players the server is still there
+    private boolean isHeartbeatDue() {
+        return System.currentTimeMillis() - lastHeartbeat >= HEARTBEAT_INTERVAL;
+    }
 
-        //find min time of all requests of the same box
-        for(LockRequestObj r: lockRequests) {
-            if(obj.getX() == r.getX() && obj.getY() == r.getY() && obj.getTime() > r.getTime()) {
-                obj = r;
+    //tell everyone the server is alive, the player next in line to host gets the state with it
+    //(not in the rooms of a room server, nobody there takes over)
+    private void sendHeartbeats() {
+        long now = System.currentTimeMillis();
+        lastHeartbeat = now;
+
+        Message snapshot = null;
+        if(room == 0 && lockRequests != null && players.size() > 1 && (stateChanged || now - lastSnapshot >= SNAPSHOT_REFRESH)) {
+            if(stateChanged) {
+                snapshotVersion++;
+                stateChanged = false;
             }
+            snapshot = new Message(Message.TO_CLIENT, Message.SNAPSHOT);
+            snapshot.setData(StateSnapshot.write(snapshotVersion, grid, lockRequests.getRequests()));
+            lastSnapshot = now;
+        }
+
+        Message heartbeat = new Message(Message.TO_CLIENT, Message.HEARTBEAT);
+        for(int i = 0; i < players.size(); i++) {
+            Message message = i == 1 && snapshot != null ? snapshot : heartbeat;
+            message.setRoom(room);
+            sendQueue.produce(message.copy(players.get(i).getKey()));
+        }
+    }
+
+    //resolve every box-lock window that is closed, the earliest request of each box wins
+    private void resolveLockConflicts() {
+        if(lockRequests == null) {
+            return;
         }
 
-        //remove all requests of the same box after resolving the conflict
-        final int x = obj.getX();
-        final int y = obj.getY();
-        lockRequests.removeIf((LockRequestObj temp) -> (temp.getX() == x && temp.getY() == y));
+        LockRequestObj obj = lockRequests.poll();
+        while(obj != null) {
+            grantLock(obj, contendedGrants);
+            obj = lockRequests.poll();
+        }
+    }
 
-        //broadcast the winner
-        grid[obj.getX()][obj.getY()] = obj.getOwner();
-        broadcast("7#" + obj.getX() + "#" + obj.getY() + "#" + obj.getOwner() + "#" + obj.getTime());
+    //broadcast the winner
+    private void grantLock(LockRequestObj obj, LatencyHistogram latency) {
+        setOwner(obj.getX(), obj.getY(), obj.getOwner());
+        Message message = new Message(Message.TO_CLIENT, Message.LOCK_BOX, obj.getX(), obj.getY(), obj.getOwner());
+        message.setTime(obj.getTime());
+        broadcast(message);
+        latency.record(System.nanoTime() - obj.getServerTime());
     }
 
     //process incoming messages
-    private void processRecv() {
+    private void processRecv(Message message) {
         //only process when there's something
-        Pair<byte[], String> message = recvQueue.consume();
         if(message == null) {
             return;
         }
 
-        //extract the message and process each type accordingly
-        int messageType = Integer.parseInt(message.getValue().substring(0,1));
-        switch (messageType) {
-            case 1: messageRequestToConnect(message); break;
-            case 3: messageStartMessage(message); break;
-            case 4: broadcast(message.getValue()); break;
-            case 5: captureSuccess(message); break;
-            case 6: releaseLock(message); break;
-            case 7: lockBox(message); break;
-            case 9: sendTimeReply(message); break;
+        //drawings, locks and captures mean nothing before the game started (there's no grid yet)
+        if(!isStarted() && isGameplay(message.getType())) {
+            message.recycle();
+            return;
+        }
+
+        //drawings wait for the rest of the tick, captures and releases go after the strokes received before them
+        if(message.getType() == Message.UPDATE) {
+            strokes.add(message.getX(), message.getY(), message.getPlayer());
+            setActive(message.getX(), message.getY(), message.getPlayer());
+        } else if(message.getType() == Message.STROKES) {
+            strokes.addAll(message);
+            setActive(message);
+        } else if(message.getType() == Message.CAPTURE_SUCCESS || message.getType() == Message.CAPTURE_FAILURE) {
+            broadcastStrokes();
         }
+
+        //process each type accordingly
+        switch (message.getType()) {
+            case Message.CONNECT: messageRequestToConnect(message); break;
+            case Message.START_GAME: messageStartMessage(message); break;
+            case Message.CAPTURE_SUCCESS: captureSuccess(message); break;
+            case Message.CAPTURE_FAILURE: releaseLock(message); break;
+            case Message.LOCK_BOX: lockBox(message); break;
+            case Message.PING: sendTimeReply(message); break;
+        }
+
+        //done with the message, everything needed is copied by now
+        message.recycle();
+    }
+
+    //messages only sent while a game is on
+    private boolean isGameplay(int type) {
+        return type == Message.UPDATE || type == Message.STROKES || type == Message.LOCK_BOX
+                || type == Message.CAPTURE_SUCCESS || type == Message.CAPTURE_FAILURE;
+    }
+
+    //box on the grid and player ID in range, anything else is dropped
+    private boolean isValidBox(Message message) {
+        return message.getX() >= 0 && message.getX() < grid.length && message.getY() >= 0 && message.getY() < grid.length
+                && message.getPlayer() > 0 && message.getPlayer() <= MAX_PLAYERS;
     }
 
     //box is successfully captured
-    private void captureSuccess(Pair<byte[], String> message) {
-        //check number of boxes left
-        int count = 0;
-        for(int[] row: grid) {
-            for(int val: row) {
-                if(val != 0) {
-                    count++;
-                }
-            }
+    private void captureSuccess(Message message) {
+        if(!isValidBox(message)) {
+            return;
         }
-
-        //if it's done, send end game message, otherwise just broadcast the message
-        if(count == grid.length * grid.length) {
+        //if no box is left, send end game message, otherwise just broadcast the message
+        if(freeBoxes == 0) {
             sendEndGameMessage();
         } else {
-            broadcast(message.getValue());
+            broadcast(message);
         }
     }
 
     //ping back the client with current server time
-    private void sendTimeReply(Pair<byte[], String> message) {
-        reply("9#" + System.currentTimeMillis(), message.getKey());
+    private void sendTimeReply(Message message) {
+        Message reply = new Message(Message.TO_CLIENT, Message.PING);
+        reply.setTime(System.nanoTime());
+        reply.setEchoTime(message.getTime());
+        reply(reply, message.getAddress());
     }
 
     //calculate winner and send end game message
     private void sendEndGameMessage() {
-        //count boxes of each player
-        int[] scores = new int[] {0, 0, 0, 0};
-        for(int[] row: grid) {
-            for(int value: row) {
-                if(value > 0) {
-                    (scores[value-1])++;
-                }
-            }
-        }
-
         //find the max score
         int max = 0;
         for(int score: scores) {
@@ -188,115 +364,275 @@ public class ServerThread extends Task<Void> {
         }
 
         //send the winner list (0 = no, 1 = yes) - there can be multiple winners
-        String message = "8";
-        for(int i = 0; i < 4; i++) {
+        String winners = "";
+        int playerCount = Math.min(Math.max(4, players.size()), MAX_PLAYERS);
+        for(int i = 1; i <= playerCount; i++) {
+            if(i > 1) {
+                winners += "#";
+            }
             if(max == scores[i]) {
-                message += "#1";
+                winners += "1";
             } else {
-                message += "#0";
+                winners += "0";
             }
         }
-        broadcast(message);
+        broadcast(new Message(Message.TO_CLIENT, Message.GAME_OVER, winners));
+        isOver = true;
+    }
+
+
+    //change owner of a box and keep the standings up to date
+    private void setOwner(int x, int y, int owner) {
+        int oldOwner = grid[x][y];
+        if(oldOwner == owner) {
+            return;
+        }
+        if(oldOwner == 0) {
+            freeBoxes--;
+        } else {
+            scores[oldOwner]--;
+        }
+        if(owner == 0) {
+            freeBoxes++;
+        } else {
+            scores[owner]++;
+        }
+        grid[x][y] = owner;
+        stateChanged = true;
+    }
+
+    //number of boxes owned by a player (locked or captured)
+    int getScore(int player) {
+        return scores[player];
+    }
+
+    //number of boxes nobody owns
+    int getFreeBoxCount() {
+        return freeBoxes;
     }
 
     //process request to lock the box
-    private void lockBox(Pair<byte[], String> message) {
+    private void lockBox(Message message) {
+
+        if(!isValidBox(message)) {
+            return;
+        }
 
         //extract the message
-        String rawMessage = message.getValue();
-        String[] parts = rawMessage.split("#");
-        int x = Integer.parseInt(parts[1]);
-        int y = Integer.parseInt(parts[2]);
-        int playerID = Integer.parseInt(parts[3]);
-        long timeStamp = Long.parseLong(parts[4]);
+        int x = message.getX();
+        int y = message.getY();
+        int playerID = message.getPlayer();
+        long timeStamp = message.getTime();
+
+        //the player's clock isn't synchronized with this server yet (time error -1): its timestamp means nothing
+        //here, the request is ordered by when it arrived
+        if(message.getTimeError() < 0) {
+            timeStamp = System.nanoTime();
+        }
 
         //if the box is not available, drop message
         if(grid[x][y] != playerID && grid[x][y] != 0) {
             return;
         }
+        clockErrors[playerID] = message.getTimeError();
+        playerIPs[playerID] = message.getAddress();
 
-        //otherwise, put on the queue to be processed later (max after 20ms)
+        //nobody else around and nobody asked for it yet: nothing to compete with, grant it right away
         LockRequestObj obj = new LockRequestObj(x, y, timeStamp, playerID);
-        lockRequests.add(obj);
+        int near = lockRequests.getPlayersNear(x, y, playerID, nearPlayers);
+        lockRequests.setActive(playerID, x, y);
+        if(Game.LOCK_IMMEDIATE && near == 0 && !lockRequests.hasWindow(x, y)) {
+            grantLock(obj, immediateGrants);
+            return;
+        }
+
+        //otherwise, put on the queue to be processed later (max after 20ms)
+        if(!Game.LOCK_IMMEDIATE) {
+            near = 0;
+            for(int i = 1; i <= players.size() && i <= MAX_PLAYERS; i++) {
+                if(i != playerID) {
+                    nearPlayers[near++] = i;
+                }
+            }
+        }
+        lockRequests.add(obj, lockWindow(playerID, nearPlayers, near));
+        stateChanged = true;
+    }
+
+    //how long to wait for competing requests (ns):
+    //a request of another player with an earlier timestamp can still be on its way if that player is further away,
+    //and timestamps closer than both clock errors together can't be ordered, so wait for that too
+    //(the longest window while the error or round trip of one of them is unknown)
+    private long lockWindow(int player, int[] others, int count) {
+        long error = clockErrors[player];
+        long oneWay = oneWayDelay(player);
+        if(error < 0 || oneWay < 0) {
+            return LOCK_WINDOW;
+        }
+
+        long window = error;
+        for(int i = 0; i < count; i++) {
+            long otherError = clockErrors[others[i]];
+            long otherOneWay = oneWayDelay(others[i]);
+            if(otherError < 0 || otherOneWay < 0) {
+                return LOCK_WINDOW;
+            }
+            window = Math.max(window, error + otherError + Math.max(otherOneWay - oneWay, 0));
+        }
+        return Math.min(window, LOCK_WINDOW);
+    }
+
+    //half the round trip time to a player (ns, -1 = unknown)
+    private long oneWayDelay(int player) {
+        if(playerIPs[player] == null || rtts == null) {
+            return -1;
+        }
+        RttEstimator rtt = rtts.apply(playerIPs[player]);
+        if(rtt.getSampleCount() == 0) {
+            return -1;
+        }
+        return (long) (rtt.getSRTT() * 1000000 / 2);
+    }
+
+    //players drawing in a box may ask for the boxes around it
+    private void setActive(Message message) {
+        int boxSize = message.getBoxSize();
+        if(lockRequests == null || boxSize <= 0) {
+            return;
+        }
+        for(int i = 0; i < message.getPointCount(); i++) {
+            int player = message.getPointPlayer(i);
+            lockRequests.setActive(player, message.getPointX(i) / boxSize, message.getPointY(i) / boxSize);
+        }
+    }
+
+    //same for a single drawn point (pixels)
+    private void setActive(int x, int y, int player) {
+        if(lockRequests == null || grid.length == 0) {
+            return;
+        }
+        int boxSize = 600 / grid.length;
+        lockRequests.setActive(player, x / boxSize, y / boxSize);
+    }
+
+    //stroke points sent to a player, and left out because it drew them or they were far from it
+    long getStrokePointsSent(int player) {
+        return fanOut.getPointsSent(player);
+    }
+
+    long getStrokePointsSkipped(int player) {
+        return fanOut.getPointsSkipped(player);
+    }
+
+    //time from lock request to lock broadcast, granted right away or after a window
+    LatencyHistogram getImmediateGrants() {
+        return immediateGrants;
+    }
+
+    LatencyHistogram getContendedGrants() {
+        return contendedGrants;
     }
 
     //process message to release the lock on a box
-    private void releaseLock(Pair<byte[], String> message) {
-        String rawMessage = message.getValue();
-        String[] parts = rawMessage.split("#");
-        int x = Integer.parseInt(parts[1]);
-        int y = Integer.parseInt(parts[2]);
+    private void releaseLock(Message message) {
+        if(!isValidBox(message)) {
+            return;
+        }
+        int x = message.getX();
+        int y = message.getY();
 
         //restore owner of the box and broadcast result
-        grid[x][y] = 0;
-        broadcast(message.getValue());
+        setOwner(x, y, 0);
+        broadcast(message);
     }
 
     //when user presses Start button to start the game
-    private void messageStartMessage(Pair<byte[], String> message) {
+    private void messageStartMessage(Message message) {
         //broadcast the message to start game with game settings
-        broadcast(message.getValue());
-        UIrecvQueue.produce(message.getValue());
-        String rawMessage = message.getValue();
-        String[] parts = rawMessage.split("#");
+        broadcast(message);
+        UIrecvQueue.produce(message.copy(message.getAddress()));
+        String[] parts = message.getText().split("#");
 
         //create tue logic grid
-        int gridSize = Integer.parseInt((parts[2]));
+        int gridSize = Integer.parseInt((parts[1]));
         grid = new int[gridSize][gridSize];
-        for(int i = 0; i < gridSize; i++) {
-            for(int j = 0; j < gridSize; j++) {
-                grid[i][j] = 0;
-            }
-        }
+        scores = new int[MAX_PLAYERS + 1];
+        freeBoxes = gridSize * gridSize;
+        lockRequests = new LockArbiter(gridSize);
+        strokes.setBoxSize(600 / gridSize);
     }
 
     //when someone requests to connect to play the game
-    private void messageRequestToConnect(Pair<byte[], String> message) {
-        //add player to the list and reply yes
-        addPlayer(message);
-        String reply = "2#";
+    private void messageRequestToConnect(Message message) {
+        //add player to the list and reply yes (no reply once the game is full, player IDs only go up to MAX_PLAYERS)
+        if(!addPlayer(message)) {
+            return;
+        }
+        Message reply = new Message(Message.TO_CLIENT, Message.CONNECT_REPLY);
 
         //only for backup server
-        //send game state for the other player to resynchronize
+        //send the owners of the boxes for the other player to resynchronize (one byte per box)
         if(grid != null) {
-            for(int[] row: grid) {
-                for(int val: row) {
-                    reply += val;
-                }
-            }
+            reply.setData(StateSnapshot.write(snapshotVersion, grid, Collections.<LockRequestObj>emptyList()));
         }
 
-        reply(reply, message.getKey());
-        UIrecvQueue.produce(message.getValue());
+        reply(reply, message.getAddress());
+        UIrecvQueue.produce(message.copy(message.getAddress()));
     }
 
     //helper function to reply to a certain player
-    private void reply(String rawString, byte[] player) {
-        String message = "0#" + rawString;
-        sendQueue.produce(new Pair<>(player, message));
+    private void reply(Message message, byte[] player) {
+        message.setDirection(Message.TO_CLIENT);
+        message.setRoom(room);
+        sendQueue.produce(message.copy(player));
     }
 
-    //helper function to broadcast the message
-    private void broadcast(String rawString) {
-        String message = "0#" + rawString;
+    //send strokes of everyone collected so far as one frame, each player only gets the part it needs
+    private void broadcastStrokes() {
+        Message frame = strokes.flush();
+        if(frame == null) {
+            return;
+        }
+        frame.setDirection(Message.TO_CLIENT);
+        frame.setRoom(room);
+
+        int playerID = 1;
         for(Pair<byte[], String> player: players) {
-            sendQueue.produce(new Pair<>(player.getKey(), message));
+            int activeBox = lockRequests == null ? -1 : lockRequests.getActiveBox(playerID);
+            int activeX = activeBox < 0 ? -1 : activeBox / grid.length;
+            int activeY = activeBox < 0 ? -1 : activeBox % grid.length;
+            Message message = fanOut.filter(frame, playerID, activeX, activeY);
+            if(message != null) {
+                message.setAddress(player.getKey());
+                sendQueue.produce(message);
+            }
+            playerID++;
         }
+        frame.recycle();
     }
 
+    //helper function to broadcast the message
+    private void broadcast(Message message) {
+        message.setDirection(Message.TO_CLIENT);
+        message.setRoom(room);
+        for(Pair<byte[], String> player: players) {
+            sendQueue.produce(message.copy(player.getKey()));
+        }
+    }
+    //add player to the list (false if the game is full)
     //add player to the list
-    private void addPlayer(Pair<byte[], String> message) {
+    private boolean addPlayer(Message message) {
         //only add when the player is not already on the list
-        String[] splitMessage = message.getValue().split("#");
         for(Pair<byte[], String> player: players) {
-            if(player.getKey()[0] == message.getKey()[0] &&
-                    player.getKey()[1] == message.getKey()[1] &&
-                    player.getKey()[2] == message.getKey()[2] &&
-                    player.getKey()[3] == message.getKey()[3]) {
-                        return;
+            if(message.isAddress(player.getKey())) {
+                return true;
             }
         }
-        Pair<byte[], String> newPlayer = new Pair<>(message.getKey(), splitMessage[1]);
+        if(players.size() >= MAX_PLAYERS) {
+            return false;
+        }
+        Pair<byte[], String> newPlayer = new Pair<>(message.getAddress(), message.getText());
         players.add(newPlayer);
+        return true;
     }
 }
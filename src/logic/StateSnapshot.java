@@ -0,0 +1,110 @@
+package logic;
+
+import networking.MessageCodec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ *  Logic
+ *  State of the server sent to the player next in line to host, so it can take over where the server stopped
+ *  (a backup server also sends its owners this way to the players connecting to it, without lock requests)
+ *  [version (varint)][grid size (varint)][owner of each box (byte)...]
+ *  [pending lock requests (varint)] then for each one [x (varint)][y (varint)][player (byte)][time (long)]
+ *  Scores and free boxes follow from the owners, the version tells newer snapshots from older ones
+ */
+class StateSnapshot {
+    private final long version;
+    private final int[][] owners;
+    private final LockRequestObj[] locks;
+
+    private StateSnapshot(long version, int[][] owners, LockRequestObj[] locks) {
+        this.version = version;
+        this.owners = owners;
+        this.locks = locks;
+    }
+
+    //encode the state of a server
+    static byte[] write(long version, int[][] grid, List<LockRequestObj> locks) {
+        int gridSize = grid.length;
+        ByteBuffer buffer = ByteBuffer.allocate(20 + gridSize * gridSize + locks.size() * 20);
+        MessageCodec.putVarLong(buffer, version);
+        MessageCodec.putVarLong(buffer, gridSize);
+        for(int[] row: grid) {
+            for(int owner: row) {
+                buffer.put((byte) owner);
+            }
+        }
+        MessageCodec.putVarLong(buffer, locks.size());
+        for(LockRequestObj lock: locks) {
+            MessageCodec.putVarLong(buffer, lock.getX());
+            MessageCodec.putVarLong(buffer, lock.getY());
+            buffer.put((byte) lock.getOwner());
+            buffer.putLong(lock.getTime());
+        }
+
+        byte[] data = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(data);
+        return data;
+    }
+
+    //decode a snapshot (null if it's not a valid one)
+    static StateSnapshot read(byte[] data) {
+        if(data == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long version = MessageCodec.getVarLong(buffer);
+            int gridSize = (int) MessageCodec.getVarLong(buffer);
+            if(gridSize < 0 || gridSize * gridSize > buffer.remaining()) {
+                return null;
+            }
+            int[][] owners = new int[gridSize][gridSize];
+            for(int i = 0; i < gridSize; i++) {
+                for(int j = 0; j < gridSize; j++) {
+                    owners[i][j] = buffer.get() & 0xFF;
+                }
+            }
+
+            int count = (int) MessageCodec.getVarLong(buffer);
+            if(count < 0 || count > gridSize * gridSize) {
+                return null;
+            }
+            LockRequestObj[] locks = new LockRequestObj[count];
+            for(int i = 0; i < count; i++) {
+                int x = (int) MessageCodec.getVarLong(buffer);
+                int y = (int) MessageCodec.getVarLong(buffer);
+                int player = buffer.get() & 0xFF;
+                long time = buffer.getLong();
+                if(x < 0 || y < 0 || x >= gridSize || y >= gridSize) {
+                    return null;
+                }
+                locks[i] = new LockRequestObj(x, y, time, player);
+            }
+            return new StateSnapshot(version, owners, locks);
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    //getters
+    long getVersion() {
+        return version;
+    }
+
+    int getGridSize() {
+        return owners.length;
+    }
+
+    int getOwner(int x, int y) {
+        return owners[x][y];
+    }
+
+    //lock requests that were still waiting for competing ones (received again, windows start over)
+    LockRequestObj[] getLocks() {
+        return locks;
+    }
+}
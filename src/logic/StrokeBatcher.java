@@ -0,0 +1,115 @@
+package logic;
+
+import networking.Message;
+
+/**
+ *  Logic
+ *  Collects drawn points for one tick and sends them as a single stroke frame
+ *  instead of one message per mouse event
+ *  Repeated points are dropped, and optionally the middle one of 3 points on a line
+ *  (the frame is then marked so receivers draw lines between points)
+ */
+class StrokeBatcher {
+    //max number of points in one frame (keeps the packet small)
+    private final int MAX_POINTS = 1000;
+
+    private final long tick;
+    private final int direction;
+    private final boolean simplify;
+
+    //size of a box in pixels, points are sent relative to their box
+    private int boxSize = 0;
+
+    //frame being filled and when its first point was added
+    private Message frame;
+    private long frameStart;
+
+    //constructor, tick in ms (0 = send every point right away)
+    StrokeBatcher(long tick, int direction, boolean simplify) {
+        this.tick = tick;
+        this.direction = direction;
+        this.simplify = simplify;
+    }
+
+    //set size of a box in pixels
+    void setBoxSize(int boxSize) {
+        this.boxSize = boxSize;
+    }
+
+    //add one drawn point
+    void add(int x, int y, int player) {
+        if(frame == null) {
+            frame = Message.obtain();
+            frame.setDirection(direction);
+            frame.setType(Message.STROKES);
+            frame.setBoxSize(boxSize);
+            frame.setConnected(simplify);
+            frameStart = System.currentTimeMillis();
+        }
+
+        int count = frame.getPointCount();
+        if(count > 0 && frame.getPointPlayer(count - 1) == player) {
+            int lastX = frame.getPointX(count - 1);
+            int lastY = frame.getPointY(count - 1);
+
+            //same point again, nothing new to draw
+            if(lastX == x && lastY == y) {
+                return;
+            }
+
+            //last point is on the line between the one before and this one, replace it
+            if(simplify && count > 1 && frame.getPointPlayer(count - 2) == player &&
+                    isBetween(frame.getPointX(count - 2), frame.getPointY(count - 2), lastX, lastY, x, y)) {
+                frame.removeLastPoint();
+            }
+        }
+        frame.addPoint(x, y, player);
+    }
+
+    //add all points of another frame
+    void addAll(Message strokes) {
+        if(strokes.getBoxSize() > 0) {
+            boxSize = strokes.getBoxSize();
+        }
+        for(int i = 0; i < strokes.getPointCount(); i++) {
+            add(strokes.getPointX(i), strokes.getPointY(i), strokes.getPointPlayer(i));
+        }
+
+        //some points were dropped by the sender, receivers have to join them too
+        if(strokes.isConnected() && frame != null) {
+            frame.setConnected(true);
+        }
+    }
+
+    //check if point b is on the segment between a and c
+    private boolean isBetween(int ax, int ay, int bx, int by, int cx, int cy) {
+        long cross = (long) (bx - ax) * (cy - ay) - (long) (by - ay) * (cx - ax);
+        long dot = (long) (bx - ax) * (cx - bx) + (long) (by - ay) * (cy - by);
+        return cross == 0 && dot >= 0;
+    }
+
+    //check if the frame should be sent now
+    boolean isDue() {
+        return frame != null &&
+                (System.currentTimeMillis() - frameStart >= tick || frame.getPointCount() >= MAX_POINTS);
+    }
+
+    //how long until the frame should be sent
+    long nextTimeout(long max) {
+        if(frame == null) {
+            return max;
+        }
+        if(frame.getPointCount() >= MAX_POINTS) {
+            return 0;
+        }
+        long remaining = tick - (System.currentTimeMillis() - frameStart);
+        return Math.max(Math.min(remaining, max), 0);
+    }
+
+    //take the frame to send it (null if nothing was drawn)
+    Message flush() {
+        Message ready = frame;
+        frame = null;
+        return ready;
+    }
+}
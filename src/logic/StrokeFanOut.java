@@ -0,0 +1,87 @@
+package logic;
+
+import networking.Message;
+
+/**
+ *  Logic
+ *  Decides which points of a stroke frame each player gets
+ *  Players don't get their own points back (they drew them already), and boxes further than
+ *  a few boxes from where a player is active can get only 1 point in N (the frame is then marked
+ *  so receivers draw lines between the points left)
+ *  Locks, captures and releases don't go through here, everyone always gets them
+ */
+class StrokeFanOut {
+    private final int MAX_PLAYERS = 255;
+
+    private final boolean echo;
+    private final int thin;
+    private final int radius;
+
+    //far points met so far for each player (by ID), across frames since a frame has few points of each stroke
+    private final long[] farPoints = new long[MAX_PLAYERS + 1];
+
+    //points sent to and kept from each player (by ID)
+    private final long[] pointsSent = new long[MAX_PLAYERS + 1];
+    private final long[] pointsSkipped = new long[MAX_PLAYERS + 1];
+
+    //constructor: whether players get their own points, 1 point in thin kept for boxes further than radius boxes
+    StrokeFanOut(boolean echo, int thin, int radius) {
+        this.echo = echo;
+        this.thin = Math.max(thin, 1);
+        this.radius = radius;
+    }
+
+    //part of a frame for one player (null if nothing is left for it)
+    //activeX/activeY: box the player is active in (-1 = not active, everything is close then)
+    Message filter(Message frame, int recipient, int activeX, int activeY) {
+        int boxSize = frame.getBoxSize();
+        boolean thinning = thin > 1 && activeX >= 0 && boxSize > 0 && recipient >= 0 && recipient <= MAX_PLAYERS;
+
+        Message message = null;
+        int skipped = 0;
+        for(int i = 0; i < frame.getPointCount(); i++) {
+            int x = frame.getPointX(i);
+            int y = frame.getPointY(i);
+            int player = frame.getPointPlayer(i);
+            if(!echo && player == recipient) {
+                skipped++;
+                continue;
+            }
+
+            //far from the player: keep 1 in thin
+            if(thinning && Math.max(Math.abs(x / boxSize - activeX), Math.abs(y / boxSize - activeY)) > radius &&
+                    farPoints[recipient]++ % thin != 0) {
+                skipped++;
+                continue;
+            }
+
+            if(message == null) {
+                message = Message.obtain();
+                message.setDirection(frame.getDirection());
+                message.setType(Message.STROKES);
+                message.setRoom(frame.getRoom());
+                message.setBoxSize(boxSize);
+                message.setConnected(frame.isConnected());
+            }
+            message.addPoint(x, y, player);
+        }
+
+        if(recipient >= 0 && recipient <= MAX_PLAYERS) {
+            pointsSkipped[recipient] += skipped;
+            pointsSent[recipient] += message == null ? 0 : message.getPointCount();
+        }
+        if(message != null && thinning && skipped > 0) {
+            message.setConnected(true);
+        }
+        return message;
+    }
+
+    //stroke points sent to a player so far, and points it didn't need
+    long getPointsSent(int player) {
+        return pointsSent[player];
+    }
+
+    long getPointsSkipped(int player) {
+        return pointsSkipped[player];
+    }
+}
@@ -0,0 +1,89 @@
+package networking;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ *  Networking
+ *  Addresses of known peers, so sending/receiving doesn't create new address objects every time
+ *  Peers are identified by their IPv4 address and port packed in a long (see PeerAddress), as many as connect
+ */
+class AddressCache {
+    //what is kept for each peer
+    private static class Peer {
+        private final byte[] address;
+        private InetSocketAddress socketAddress;
+        private long bytesSent;
+
+        Peer(byte[] address) {
+            this.address = address;
+        }
+    }
+
+    private final PeerMap<Peer> peers = new PeerMap<>();
+
+    //number of addresses created so far
+    private long allocations = 0;
+
+    //get the shared byte[] of a sender address
+    synchronized byte[] getAddress(InetAddress IP, int port) {
+        Peer peer = peers.get(PeerAddress.toKey(IP, port));
+        if(peer != null) {
+            return peer.address;
+        }
+
+        //first message from this peer
+        byte[] address = PeerAddress.of(IP, port);
+        allocations++;
+        add(address);
+        return address;
+    }
+
+    //get the socket address to send to a peer
+    synchronized InetSocketAddress getSocketAddress(byte[] address) {
+        Peer peer = peers.get(PeerAddress.toKey(address));
+        if(peer != null && peer.socketAddress != null) {
+            return peer.socketAddress;
+        }
+
+        //first message to this peer
+        InetSocketAddress socketAddress;
+        try {
+            socketAddress = new InetSocketAddress(InetAddress.getByAddress(PeerAddress.getIP(address)),
+                                                  PeerAddress.getPort(address));
+        } catch (Exception ex) {
+            return null;
+        }
+        if(peer == null) {
+            peer = add(address);
+        }
+        peer.socketAddress = socketAddress;
+        return socketAddress;
+    }
+
+    //count bytes sent to a peer
+    synchronized void addBytesSent(byte[] address, int bytes) {
+        Peer peer = peers.get(PeerAddress.toKey(address));
+        if(peer != null) {
+            peer.bytesSent += bytes;
+        }
+    }
+
+    //bytes sent to a peer so far
+    synchronized long getBytesSent(byte[] address) {
+        Peer peer = peers.get(PeerAddress.toKey(address));
+        return peer != null ? peer.bytesSent : 0;
+    }
+
+    //number of addresses created so far
+    synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    //remember a new peer
+    private Peer add(byte[] address) {
+        Peer peer = new Peer(address);
+        peers.put(PeerAddress.toKey(address), peer);
+        return peer;
+    }
+}
@@ -0,0 +1,210 @@
+package networking;
+
+import logic.MessageQueue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+
+/**
+ *  Networking
+ *  Transport on a non-blocking DatagramChannel
+ *  One thread sleeps on a Selector and does everything: receive, send, resend
+ *  It wakes up when a packet arrives, when something is put on the send queue or when a resend is due
+ */
+public class ChannelTransport implements Transport, NetworkingProtocol.Output, Runnable {
+    private DatagramChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+
+    private NetworkingProtocol protocol;
+    private AddressCache addresses = new AddressCache();
+    private MessageQueue<Message> sendQueue;
+
+    //thread state
+    private volatile boolean isRunning = true;
+
+    //one buffer for each direction reused for every message
+    private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MessageCodec.MAX_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MessageCodec.MAX_SIZE);
+
+    //packets the OS couldn't take yet, sent again when the channel is writable
+    private final ArrayDeque<ByteBuffer> pendingPackets = new ArrayDeque<>();
+    private final ArrayDeque<SocketAddress> pendingAddresses = new ArrayDeque<>();
+
+    //constructor, open UDP channel on an address/port (port 0 = any free port)
+    public ChannelTransport(InetSocketAddress bindAddress,
+                            MessageQueue<Message> sendQueue,
+                            MessageQueue<Message> serverRecvQueue,
+                            MessageQueue<Message> clientRecvQueue) {
+        this.sendQueue = sendQueue;
+        protocol = new NetworkingProtocol(sendQueue, serverRecvQueue, clientRecvQueue);
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.bind(bindAddress);
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //networking thread
+    @Override
+    public void start() {
+        //wake up the selector when there's something new to send
+        sendQueue.setOnProduce(selector::wakeup);
+
+        Thread thread = new Thread(this);
+        thread.start();
+    }
+
+    //stop thread at the end
+    @Override
+    public void stop() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    //new messages and new peer addresses
+    @Override
+    public long getAllocationCount() {
+        return Message.getPool().getAllocationCount() + addresses.getAllocationCount();
+    }
+
+    @Override
+    public long getDuplicateCount() {
+        return protocol.getDuplicateCount();
+    }
+
+    @Override
+    public RttEstimator getRTT(byte[] address) {
+        return protocol.getRTT(address);
+    }
+
+    @Override
+    public long getBytesSent(byte[] address) {
+        return addresses.getBytesSent(address);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    //main loop of the thread, run when the thread starts
+    @Override
+    public void run() {
+        while(isRunning) {
+            try {
+                //sleep until something happens or the next resend is due
+                long timeout = protocol.nextTimeout();
+                if(timeout > 0 && sendQueue.isEmpty()) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+                selector.selectedKeys().clear();
+
+                receiveMessages();
+                sendPendingPackets();
+                sendNewMessages();
+                protocol.resend(this);
+            } catch (Exception ex) {
+                System.out.println("Oh oh...");
+            }
+        }
+
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //receive everything that has arrived
+    private void receiveMessages() throws IOException {
+        while(true) {
+            recvBuffer.clear();
+            SocketAddress sender = channel.receive(recvBuffer);
+            if(sender == null) {
+                return;
+            }
+            recvBuffer.flip();
+
+            //extract message info into a recycled message, drop anything that is not in our format
+            Message message = Message.obtain();
+            if(!MessageCodec.decode(recvBuffer, message)) {
+                message.recycle();
+                continue;
+            }
+            InetSocketAddress from = (InetSocketAddress) sender;
+            message.setAddress(addresses.getAddress(from.getAddress(), from.getPort()));
+
+            //process message
+            protocol.receive(message);
+        }
+    }
+
+    //send everything on the send queue
+    private void sendNewMessages() {
+        Message messageToSend = sendQueue.consume();
+        while(messageToSend != null) {
+            protocol.send(messageToSend, this);
+            messageToSend = sendQueue.consume();
+        }
+    }
+
+    //send message to a particular IP
+    @Override
+    public void sendMessage(Message message) {
+        InetSocketAddress address = addresses.getSocketAddress(message.getAddress());
+        if(address == null) {
+            System.out.println("Cannot resolve host name");
+            return;
+        }
+
+        //encode message into the buffer
+        sendBuffer.clear();
+        MessageCodec.encode(message, sendBuffer);
+        sendBuffer.flip();
+        addresses.addBytesSent(message.getAddress(), sendBuffer.remaining());
+
+        try {
+            //keep the order if some packets are already waiting
+            if(pendingPackets.isEmpty() && channel.send(sendBuffer, address) > 0) {
+                return;
+            }
+        } catch (IOException ex) {
+            System.out.println("Cannot send to " + address);
+            return;
+        }
+
+        //OS buffer is full, keep a copy and send it when the channel is writable
+        ByteBuffer copy = ByteBuffer.allocate(sendBuffer.remaining());
+        copy.put(sendBuffer);
+        copy.flip();
+        pendingPackets.add(copy);
+        pendingAddresses.add(address);
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    //send packets that couldn't be sent before
+    private void sendPendingPackets() throws IOException {
+        while(!pendingPackets.isEmpty()) {
+            if(channel.send(pendingPackets.peek(), pendingAddresses.peek()) == 0) {
+                return;
+            }
+            pendingPackets.poll();
+            pendingAddresses.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+}
@@ -0,0 +1,384 @@
+package networking;
+
+import java.util.Arrays;
+
+/**
+ *  Networking
+ *  One message exchanged between players, server and UI
+ *  Gameplay messages only use the number fields, control messages (connect, start, game over)
+ *  carry the rest of their content in text
+ */
+public class Message {
+    //who the message is for
+    public static final int TO_CLIENT = 0;
+    public static final int TO_SERVER = 1;
+
+    //message types
+    public static final int CONNECT = 1;
+    public static final int CONNECT_REPLY = 2;
+    public static final int START_GAME = 3;
+    public static final int UPDATE = 4;
+    public static final int CAPTURE_SUCCESS = 5;
+    public static final int CAPTURE_FAILURE = 6;
+    public static final int LOCK_BOX = 7;
+    public static final int GAME_OVER = 8;
+    public static final int PING = 9;
+    public static final int STROKES = 10;
+    public static final int SNAPSHOT = 11;
+    public static final int HEARTBEAT = 12;
+    public static final int SERVER_DOWN = 80;
+    public static final int ACK = 99;
+
+    //sender (received messages) or recipient (messages to send), IP and port (see PeerAddress)
+    private byte[] address;
+
+    private int direction;
+    private int type;
+    private int x;
+    private int y;
+    private int player;
+    private long time;
+
+    //game the message belongs to (0 = the only game of the server, see RoomServer)
+    private int room;
+    private String text;
+
+    //ping replies: time of the ping answered (clock of whoever sent it)
+    //lock requests: how far time may be off (ns)
+    private long echoTime;
+    private long timeError;
+
+    //sequence number of a reliable message (0 = not reliable)
+    //and the oldest one the sender still has in flight (everything before it was acked or given up on)
+    private long id;
+    private long oldest;
+
+    //acks carried by every message: all sequence numbers up to ack have been received
+    //from the recipient, bit i of ackMask means ack + 1 + i has been received too
+    private long ack;
+    private long ackMask;
+
+    //points of a stroke frame, 3 ints per point (x, y, player), kept when recycled
+    private int[] points;
+    private int pointCount;
+
+    //state snapshots and connection replies: encoded state of the server (see StateSnapshot)
+    private byte[] data;
+
+    //stroke frames: size of a box in pixels (points are sent relative to their box)
+    //and whether points of a player should be joined by lines (collinear points were dropped)
+    private int boxSize;
+    private boolean connected;
+
+    //shared pool of recycled messages
+    private static final MessagePool POOL = new MessagePool(1024);
+
+    //pool the message belongs to (null = not pooled) and whether it's sitting in it
+    private MessagePool pool;
+    private boolean free;
+
+    //get a message from the pool, call recycle() once done with it
+    public static Message obtain() {
+        return POOL.acquire();
+    }
+
+    //shared pool of recycled messages
+    public static MessagePool getPool() {
+        return POOL;
+    }
+
+    //give the message back to the pool (does nothing if it's not from the pool)
+    //the message must not be used anymore after this
+    public void recycle() {
+        if(pool != null) {
+            pool.release(this);
+        }
+    }
+
+    //empty message, to be filled by the decoder
+    public Message() {
+    }
+
+    //message with no content
+    public Message(int direction, int type) {
+        this.direction = direction;
+        this.type = type;
+    }
+
+    //message about a box (x, y are box indexes) or a drawing (x, y are pixels)
+    public Message(int direction, int type, int x, int y, int player) {
+        this(direction, type);
+        this.x = x;
+        this.y = y;
+        this.player = player;
+    }
+
+    //control message
+    public Message(int direction, int type, String text) {
+        this(direction, type);
+        this.text = text;
+    }
+
+    //copy of this message, to be sent to another address (as a new message, without id)
+    public Message copy(byte[] address) {
+        Message message = obtain();
+        message.copyFrom(this);
+        message.address = address;
+        message.id = 0;
+        message.oldest = 0;
+        message.ack = 0;
+        message.ackMask = 0;
+        return message;
+    }
+
+    //overwrite everything with the content of another message
+    public void copyFrom(Message other) {
+        address = other.address;
+        direction = other.direction;
+        type = other.type;
+        x = other.x;
+        y = other.y;
+        player = other.player;
+        time = other.time;
+        room = other.room;
+        echoTime = other.echoTime;
+        timeError = other.timeError;
+        text = other.text;
+        id = other.id;
+        oldest = other.oldest;
+        ack = other.ack;
+        ackMask = other.ackMask;
+        boxSize = other.boxSize;
+        connected = other.connected;
+        data = other.data;
+        pointCount = 0;
+        for(int i = 0; i < other.pointCount; i++) {
+            addPoint(other.getPointX(i), other.getPointY(i), other.getPointPlayer(i));
+        }
+    }
+
+    //reset to an empty message
+    void clear() {
+        address = null;
+        direction = 0;
+        type = 0;
+        x = 0;
+        y = 0;
+        player = 0;
+        time = 0;
+        room = 0;
+        echoTime = 0;
+        timeError = 0;
+        text = null;
+        id = 0;
+        oldest = 0;
+        ack = 0;
+        ackMask = 0;
+        boxSize = 0;
+        connected = false;
+        data = null;
+        pointCount = 0;
+    }
+
+    //remove the last point of a stroke frame
+    public void removeLastPoint() {
+        if(pointCount > 0) {
+            pointCount--;
+        }
+    }
+
+    //add a drawn point to a stroke frame
+    public void addPoint(int x, int y, int player) {
+        if(points == null) {
+            points = new int[3 * 64];
+        } else if(3 * pointCount == points.length) {
+            points = Arrays.copyOf(points, 2 * points.length);
+        }
+        points[3 * pointCount] = x;
+        points[3 * pointCount + 1] = y;
+        points[3 * pointCount + 2] = player;
+        pointCount++;
+    }
+
+    //points of a stroke frame
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getPointX(int index) {
+        return points[3 * index];
+    }
+
+    public int getPointY(int index) {
+        return points[3 * index + 1];
+    }
+
+    public int getPointPlayer(int index) {
+        return points[3 * index + 2];
+    }
+
+    //all points (x, y, player), only the first 3 * getPointCount() values are used
+    public int[] getPoints() {
+        return points;
+    }
+
+    public int getBoxSize() {
+        return boxSize;
+    }
+
+    public void setBoxSize(int boxSize) {
+        this.boxSize = boxSize;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    //pool bookkeeping
+    void setPool(MessagePool pool) {
+        this.pool = pool;
+    }
+
+    boolean isFree() {
+        return free;
+    }
+
+    void setFree(boolean free) {
+        this.free = free;
+    }
+
+    //check if the message is from/to a particular player (IP and port)
+    public boolean isAddress(byte[] address) {
+        return PeerAddress.equals(this.address, address);
+    }
+
+    //getters and setters
+    public byte[] getAddress() {
+        return address;
+    }
+
+    public void setAddress(byte[] address) {
+        this.address = address;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public void setDirection(int direction) {
+        this.direction = direction;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public void setX(int x) {
+        this.x = x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public void setY(int y) {
+        this.y = y;
+    }
+
+    public int getPlayer() {
+        return player;
+    }
+
+    public void setPlayer(int player) {
+        this.player = player;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public int getRoom() {
+        return room;
+    }
+
+    public void setRoom(int room) {
+        this.room = room;
+    }
+
+    public long getEchoTime() {
+        return echoTime;
+    }
+
+    public void setEchoTime(long echoTime) {
+        this.echoTime = echoTime;
+    }
+
+    public long getTimeError() {
+        return timeError;
+    }
+
+    public void setTimeError(long timeError) {
+        this.timeError = timeError;
+    }
+
+    public String getText() {
+        return text == null ? "" : text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public long getID() {
+        return id;
+    }
+
+    public void setID(long id) {
+        this.id = id;
+    }
+
+    public long getOldest() {
+        return oldest;
+    }
+
+    public void setOldest(long oldest) {
+        this.oldest = oldest;
+    }
+
+    public long getAck() {
+        return ack;
+    }
+
+    public long getAckMask() {
+        return ackMask;
+    }
+
+    public void setAck(long ack, long ackMask) {
+        this.ack = ack;
+        this.ackMask = ackMask;
+    }
+}
@@ -0,0 +1,310 @@
+package networking;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  Networking
+ *  Binary format of the messages on the wire
+ *
+ *  [version][direction][type][room (varint)][sequence number (varint)]
+ *  [sequence number - oldest one in flight (varint), reliable messages only][ack * 2 + has mask (varint)]
+ *  [ack mask (varint), only if it has one][body]
+ *  (room 0 = the only game of the server, others are games of a room server)
+ *  (sequence number 0 = not reliable, ack/ack mask acknowledge reliable messages from the recipient,
+ *  the mask is left out when it's 0, which it is unless something arrived out of order)
+ *  body of box/drawing updates: [x (short)][y (short)][player (byte)]
+ *  body of lock requests:       [x (short)][y (short)][player (byte)][time (long)][time error (varint)]
+ *  body of pings:               [time (long)][echo time (long)]
+ *  body of stroke frames:       [connected (byte)][box size (varint)][runs (varint)]
+ *                               then for each run of points of the same player in the same box
+ *                               [player (byte)][box x (varint)][box y (varint)][count (varint)]
+ *                               [dx (zigzag varint)][dy (zigzag varint)]...
+ *                               (first point relative to the box origin, then to the previous point)
+ *  body of control messages:    [length (varint)][UTF-8 text]
+ *  body of state snapshots:     [length (varint)][bytes]
+ *  body of connection replies:  same, the owners of the boxes of a game already going on (empty otherwise)
+ *  acks and heartbeats have no body
+ *
+ *  Old text clients start their messages with '0' or '1', which never matches the version byte
+ */
+public class MessageCodec {
+    //bump whenever the format changes
+    public static final int VERSION = 8;
+
+    //biggest UDP payload
+    public static final int MAX_SIZE = 65507;
+
+    private MessageCodec() {
+    }
+
+    //write message into buffer (from its current position)
+    public static void encode(Message message, ByteBuffer buffer) {
+        buffer.put((byte) VERSION);
+        buffer.put((byte) message.getDirection());
+        buffer.put((byte) message.getType());
+        putVarLong(buffer, message.getRoom());
+        putVarLong(buffer, message.getID());
+        if(message.getID() != 0) {
+            putVarLong(buffer, message.getID() - message.getOldest());
+        }
+        long ackMask = message.getAckMask();
+        putVarLong(buffer, message.getAck() << 1 | (ackMask != 0 ? 1 : 0));
+        if(ackMask != 0) {
+            putVarLong(buffer, ackMask);
+        }
+
+        switch (message.getType()) {
+            case Message.UPDATE:
+            case Message.CAPTURE_SUCCESS:
+            case Message.CAPTURE_FAILURE:
+                putBox(buffer, message);
+                break;
+            case Message.LOCK_BOX:
+                putBox(buffer, message);
+                buffer.putLong(message.getTime());
+                putVarLong(buffer, message.getTimeError());
+                break;
+            case Message.PING:
+                buffer.putLong(message.getTime());
+                buffer.putLong(message.getEchoTime());
+                break;
+            case Message.STROKES:
+                putStrokes(buffer, message);
+                break;
+            case Message.SNAPSHOT:
+            case Message.CONNECT_REPLY:
+                putBytes(buffer, message.getData());
+                break;
+            case Message.CONNECT:
+            case Message.START_GAME:
+            case Message.GAME_OVER:
+                putText(buffer, message.getText());
+                break;
+        }
+    }
+
+    //read message from buffer (from its current position), false if it's not a valid message
+    public static boolean decode(ByteBuffer buffer, Message message) {
+        message.clear();
+        try {
+            if(buffer.get() != VERSION) {
+                return false;
+            }
+            message.setDirection(buffer.get());
+            message.setType(buffer.get() & 0xFF);
+            message.setRoom((int) getVarLong(buffer));
+            message.setID(getVarLong(buffer));
+            if(message.getID() != 0) {
+                message.setOldest(message.getID() - getVarLong(buffer));
+            }
+            long ack = getVarLong(buffer);
+            message.setAck(ack >>> 1, (ack & 1) != 0 ? getVarLong(buffer) : 0);
+
+            switch (message.getType()) {
+                case Message.UPDATE:
+                case Message.CAPTURE_SUCCESS:
+                case Message.CAPTURE_FAILURE:
+                    getBox(buffer, message);
+                    break;
+                case Message.LOCK_BOX:
+                    getBox(buffer, message);
+                    message.setTime(buffer.getLong());
+                    message.setTimeError(getVarLong(buffer));
+                    break;
+                case Message.PING:
+                    message.setTime(buffer.getLong());
+                    message.setEchoTime(buffer.getLong());
+                    break;
+                case Message.STROKES:
+                    getStrokes(buffer, message);
+                    break;
+                case Message.SNAPSHOT:
+                case Message.CONNECT_REPLY:
+                    message.setData(getBytes(buffer));
+                    break;
+                case Message.CONNECT:
+                case Message.START_GAME:
+                case Message.GAME_OVER:
+                    message.setText(getText(buffer));
+                    break;
+                case Message.ACK:
+                case Message.HEARTBEAT:
+                    break;
+                default:
+                    return false;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    //box/drawing coordinates and player
+    private static void putBox(ByteBuffer buffer, Message message) {
+        buffer.putShort((short) message.getX());
+        buffer.putShort((short) message.getY());
+        buffer.put((byte) message.getPlayer());
+    }
+
+    private static void getBox(ByteBuffer buffer, Message message) {
+        message.setX(buffer.getShort());
+        message.setY(buffer.getShort());
+        message.setPlayer(buffer.get() & 0xFF);
+    }
+
+    //points of a stroke frame, grouped in runs of the same player and box
+    //the first point of a run is sent relative to the box origin, the others relative to the previous point
+    private static void putStrokes(ByteBuffer buffer, Message message) {
+        int boxSize = message.getBoxSize();
+        int count = message.getPointCount();
+        buffer.put((byte) (message.isConnected() ? 1 : 0));
+        putVarLong(buffer, boxSize);
+
+        int runs = 0;
+        for(int i = 0; i < count; i++) {
+            if(i == 0 || !isSameRun(message, i - 1, i, boxSize)) {
+                runs++;
+            }
+        }
+        putVarLong(buffer, runs);
+
+        int start = 0;
+        while(start < count) {
+            int end = start + 1;
+            while(end < count && isSameRun(message, start, end, boxSize)) {
+                end++;
+            }
+
+            int boxX = boxIndex(message.getPointX(start), boxSize);
+            int boxY = boxIndex(message.getPointY(start), boxSize);
+            buffer.put((byte) message.getPointPlayer(start));
+            putVarLong(buffer, boxX);
+            putVarLong(buffer, boxY);
+            putVarLong(buffer, end - start);
+
+            int prevX = boxX * boxSize;
+            int prevY = boxY * boxSize;
+            for(int i = start; i < end; i++) {
+                putVarInt(buffer, message.getPointX(i) - prevX);
+                putVarInt(buffer, message.getPointY(i) - prevY);
+                prevX = message.getPointX(i);
+                prevY = message.getPointY(i);
+            }
+            start = end;
+        }
+    }
+
+    private static void getStrokes(ByteBuffer buffer, Message message) {
+        message.setConnected(buffer.get() != 0);
+        int boxSize = (int) getVarLong(buffer);
+        message.setBoxSize(boxSize);
+
+        long runs = getVarLong(buffer);
+        for(long run = 0; run < runs; run++) {
+            int player = buffer.get() & 0xFF;
+            int prevX = (int) getVarLong(buffer) * boxSize;
+            int prevY = (int) getVarLong(buffer) * boxSize;
+            long count = getVarLong(buffer);
+            if(count > buffer.remaining() / 2) {
+                throw new BufferUnderflowException();
+            }
+            for(long i = 0; i < count; i++) {
+                prevX += getVarInt(buffer);
+                prevY += getVarInt(buffer);
+                message.addPoint(prevX, prevY, player);
+            }
+        }
+    }
+
+    //check if two points of a frame belong to the same run (same player, same box)
+    private static boolean isSameRun(Message message, int first, int second, int boxSize) {
+        return message.getPointPlayer(first) == message.getPointPlayer(second) &&
+                boxIndex(message.getPointX(first), boxSize) == boxIndex(message.getPointX(second), boxSize) &&
+                boxIndex(message.getPointY(first), boxSize) == boxIndex(message.getPointY(second), boxSize);
+    }
+
+    //box of a pixel coordinate (everything is in box 0 if the box size is unknown)
+    private static int boxIndex(int position, int boxSize) {
+        if(boxSize <= 0 || position < 0) {
+            return 0;
+        }
+        return position / boxSize;
+    }
+
+    //text with its length in front
+    private static void putText(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putVarLong(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getText(ByteBuffer buffer) {
+        int length = (int) getVarLong(buffer);
+        if(length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String text;
+        if(buffer.hasArray()) {
+            text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    //bytes with their length in front (null = none)
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if(bytes == null) {
+            putVarLong(buffer, 0);
+            return;
+        }
+        putVarLong(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = (int) getVarLong(buffer);
+        if(length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    //signed number, zigzag encoded so small negative numbers stay small (-1 -> 1, 1 -> 2, ...)
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        putVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    public static int getVarInt(ByteBuffer buffer) {
+        int value = (int) getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    //unsigned number in 7-bit groups, high bit set = more to come
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+}
@@ -0,0 +1,56 @@
+package networking;
+
+/**
+ *  Networking
+ *  Recycled messages, so the hot paths (strokes, acks) don't allocate a new Message every time
+ *  Only keeps up to capacity free messages, the rest is left to the garbage collector
+ */
+public class MessagePool {
+    private final Message[] free;
+    private int size = 0;
+
+    //number of messages the pool had to create because it was empty
+    private long allocations = 0;
+
+    //constructor
+    MessagePool(int capacity) {
+        free = new Message[capacity];
+    }
+
+    //get a free message, or a new one if there's none left
+    synchronized Message acquire() {
+        Message message;
+        if(size > 0) {
+            message = free[--size];
+            free[size] = null;
+        } else {
+            message = new Message();
+            message.setPool(this);
+            allocations++;
+        }
+        message.setFree(false);
+        return message;
+    }
+
+    //give a message back to the pool
+    synchronized void release(Message message) {
+        if(message.isFree()) {
+            return;
+        }
+        message.clear();
+        message.setFree(true);
+        if(size < free.length) {
+            free[size++] = message;
+        }
+    }
+
+    //number of messages created so far (stays the same once the pool is warm)
+    public synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    //number of messages waiting to be reused
+    public synchronized int getFreeCount() {
+        return size;
+    }
+}
@@ -0,0 +1,245 @@
+package networking;
+
+import logic.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ *  Networking
+ *  What to do with messages going out and coming in, whatever the transport is:
+ *  reliable messages get a sequence number per machine they're sent to and are resent until acked,
+ *  received reliable messages are acked (on the next message going back, or on their own)
+ *  and delivered once (resent copies are dropped),
+ *  and received messages are handed to the server or client thread
+ *  Called from both the sending and receiving side, so everything is synchronized
+ */
+class NetworkingProtocol {
+    //communication channels
+    private MessageQueue<Message> sendQueue;
+    private MessageQueue<Message> serverRecvQueue, clientRecvQueue;
+
+    //reliability state of every machine messages were exchanged with, by IP and port (and in a list to go through)
+    private PeerMap<ReliablePeer> peerMap = new PeerMap<>();
+    private ReliablePeer[] peers = new ReliablePeer[16];
+    private int peerCount = 0;
+
+    //in-flight messages of all machines, earliest resend first
+    //(acked ones are left in and skipped once they come up)
+    private PriorityQueue<ReliableObj> resends;
+    private ArrayList<ReliableObj> lost = new ArrayList<>();
+
+    //number of resent copies dropped
+    private long duplicates = 0;
+
+    //wake up at least every 100ms to check if stopped
+    private final long IDLE_TIMEOUT = 100;
+
+    //the actual way to put a message on the wire
+    interface Output {
+        void sendMessage(Message message);
+    }
+
+    //constructor
+    NetworkingProtocol(MessageQueue<Message> sendQueue,
+                       MessageQueue<Message> serverRecvQueue,
+                       MessageQueue<Message> clientRecvQueue) {
+        this.sendQueue = sendQueue;
+        this.serverRecvQueue = serverRecvQueue;
+        this.clientRecvQueue = clientRecvQueue;
+        resends = new PriorityQueue<>((a, b) -> Long.compare(a.getDeadline(), b.getDeadline()));
+    }
+
+    //how long to wait for new messages until the next resend is due
+    synchronized long nextTimeout() {
+        ReliableObj obj = resends.peek();
+        while(obj != null && obj.isAcked()) {
+            resends.poll();
+            obj = resends.peek();
+        }
+        if(obj == null) {
+            return IDLE_TIMEOUT;
+        }
+        return Math.min(Math.max(obj.getDeadline() - System.currentTimeMillis(), 0), IDLE_TIMEOUT);
+    }
+
+    //send new message from server/UI, reliable if needed
+    synchronized void send(Message message, Output output) {
+        ReliablePeer peer = getPeer(message.getAddress());
+        int type = message.getType();
+
+        //messages that were waiting for room in the window go first
+        sendBacklog(peer, output);
+
+        //ack on its own, not needed anymore if the acks went out with another message
+        if(type == Message.ACK) {
+            peer.setAckQueued(false);
+            if(peer.isAckPending()) {
+                peer.attachAck(message);
+                output.sendMessage(message);
+            }
+        } else if (type == Message.UPDATE || type == Message.STROKES || type == Message.PING ||
+                type == Message.SNAPSHOT || type == Message.HEARTBEAT) {
+            peer.attachAck(message);
+            output.sendMessage(message);
+
+        //if reliable, send it with the next sequence number (or wait until there's room in the window)
+        } else {
+            ReliableObj obj = new ReliableObj(message, peer);
+            if(peer.canSend()) {
+                sendFirst(obj, output);
+            } else {
+                peer.addBacklog(obj);
+            }
+        }
+
+        //done with it (reliable object keeps its own copy)
+        message.recycle();
+    }
+
+    //first time a reliable message is sent
+    private void sendFirst(ReliableObj obj, Output output) {
+        ReliablePeer peer = obj.getPeer();
+        peer.addInFlight(obj);
+        peer.attachAck(obj.getMessage());
+        obj.send(peer.getRTT());
+        output.sendMessage(obj.getMessage());
+        resends.add(obj);
+    }
+
+    //resend reliable messages that haven't been acked in time
+    synchronized void resend(Output output) {
+        long now = System.currentTimeMillis();
+        ReliableObj obj = resends.peek();
+        while(obj != null && (obj.isAcked() || obj.getDeadline() <= now)) {
+            resends.poll();
+            ReliablePeer peer = obj.getPeer();
+            if(!obj.isAcked()) {
+                //resend with twice the timeout, drop it once it has been resent too many times
+                if(obj.canResend()) {
+                    obj.resend(peer.getRTT());
+                    peer.attachAck(obj.getMessage());
+                    output.sendMessage(obj.getMessage());
+                    resends.add(obj);
+                } else {
+                    peer.remove(obj);
+                    sendBacklog(peer, output);
+                }
+            }
+            obj = resends.peek();
+        }
+
+        for(int i = 0; i < peerCount; i++) {
+            sendBacklog(peers[i], output);
+        }
+    }
+
+    //send what was waiting for room in the window
+    private void sendBacklog(ReliablePeer peer, Output output) {
+        ReliableObj obj = peer.pollBacklog();
+        while(obj != null) {
+            sendFirst(obj, output);
+            obj = peer.pollBacklog();
+        }
+    }
+
+    //process received messages
+    synchronized void receive(Message message) {
+        ReliablePeer peer = getPeer(message.getAddress());
+
+        //acks come with every message
+        long now = System.currentTimeMillis();
+        peer.processAck(message.getAck(), message.getAckMask(), now);
+
+        //resend right away what the acks show as lost (moved to the front of the resends)
+        peer.findLost(lost, now);
+        for(ReliableObj obj: lost) {
+            resends.remove(obj);
+            resends.add(obj);
+        }
+        boolean resendNow = !lost.isEmpty();
+        lost.clear();
+
+        if(message.getType() == Message.ACK) {
+            //wake up the sending side if acks made room for messages waiting in the backlog
+            //or something has to be resent
+            if(peer.hasBacklogReady() || resendNow) {
+                queueAck(peer, Message.TO_SERVER);
+            }
+            message.recycle();
+            return;
+        }
+
+        //if the message received is reliable, ack it (on its own unless something else goes back first)
+        //and drop it if it's a resent copy of one already handed over
+        boolean duplicate = false;
+        if(message.getID() != 0 || peer.hasBacklogReady() || resendNow) {
+            if(message.getID() != 0) {
+                duplicate = !peer.received(message.getID(), message.getOldest());
+            }
+
+            //if from server, send to client and vice versa
+            if(message.getDirection() == Message.TO_CLIENT) {
+                queueAck(peer, Message.TO_SERVER);
+            } else {
+                queueAck(peer, Message.TO_CLIENT);
+            }
+        }
+
+        if(duplicate) {
+            duplicates++;
+            message.recycle();
+            return;
+        }
+
+        //send it to client/server thread of the same machine based on direction
+        if(message.getDirection() == Message.TO_SERVER) {
+            serverRecvQueue.produce(message);
+        } else {
+            clientRecvQueue.produce(message);
+        }
+    }
+
+    //put an ack on the send queue (only one at a time per machine, it carries the latest acks)
+    private void queueAck(ReliablePeer peer, int direction) {
+        if(peer.isAckQueued()) {
+            return;
+        }
+        peer.setAckQueued(true);
+        Message ack = Message.obtain();
+        ack.setDirection(direction);
+        ack.setType(Message.ACK);
+        ack.setAddress(peer.getAddress());
+
+        //send ack
+        sendQueue.produce(ack);
+    }
+
+    //round trip time to a machine
+    synchronized RttEstimator getRTT(byte[] address) {
+        return getPeer(address).getRTT();
+    }
+
+    //number of resent copies dropped so far
+    synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    //reliability state of a machine, created the first time
+    private ReliablePeer getPeer(byte[] address) {
+        long key = PeerAddress.toKey(address);
+        ReliablePeer peer = peerMap.get(key);
+        if(peer != null) {
+            return peer;
+        }
+        if(peerCount == peers.length) {
+            peers = Arrays.copyOf(peers, 2 * peerCount);
+        }
+        peer = new ReliablePeer(address);
+        peerMap.put(key, peer);
+        peers[peerCount] = peer;
+        peerCount++;
+        return peer;
+    }
+}
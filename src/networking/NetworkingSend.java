@@ -1,35 +1,35 @@
 package networking;
 
 import javafx.concurrent.Task;
-import javafx.util.Pair;
 import logic.MessageQueue;
-import logic.ReliableObj;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  *  Networking
  *  A thread dedicating to send messages
  */
-public class NetworkingSend extends Task<Void> {
+public class NetworkingSend extends Task<Void> implements NetworkingProtocol.Output {
     private DatagramSocket socket;
-    private MessageQueue<Pair<byte[], String>> sendQueue;
-    private MessageQueue<ReliableObj> reliableQueue;
+    private MessageQueue<Message> sendQueue;
+    private NetworkingProtocol protocol;
+    private AddressCache addresses;
     private boolean isRunning = true;
 
-    private enum SEND_TYPE {
-        RELIABLE,
-        WHATEVER
-    }
+    //one buffer and packet reused for every message
+    private final ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_SIZE);
+    private final DatagramPacket packet = new DatagramPacket(buffer.array(), 0);
 
     //constructor
-    public NetworkingSend(MessageQueue<Pair<byte[], String>> sendQueue, DatagramSocket socket,
-                          MessageQueue<ReliableObj> reliableQueue) {
+    NetworkingSend(MessageQueue<Message> sendQueue, DatagramSocket socket,
+                   NetworkingProtocol protocol, AddressCache addresses) {
         this.sendQueue = sendQueue;
-        this.reliableQueue = reliableQueue;
         this.socket = socket;
+        this.protocol = protocol;
+        this.addresses = addresses;
     }
 
     //main loop of the thread, run when the thread starts
@@ -37,7 +37,7 @@ public class NetworkingSend extends Task<Void> {
     protected Void call() {
         while(isRunning) {
             sendNewMessages();
-            resendReliableMessages();
+            protocol.resend(this);
         }
         return null;
     }
@@ -49,74 +49,28 @@ public class NetworkingSend extends Task<Void> {
 
     //send new message from server/UI
     private void sendNewMessages() {
-        //check if there's any new message to send
-        Pair<byte[], String> messageToSend = sendQueue.consume();
+        //check if there's any new message to send (sleep until then or until a resend is due)
+        Message messageToSend = sendQueue.poll(protocol.nextTimeout());
         if (messageToSend == null) {
             return;
         }
-
-        //decide if it needs to be reliable or not
-        String[] split = messageToSend.getValue().split("#");
-        String type = split[1];
-        if (type.equals("4") || type.equals("9") || type.equals("99")) {
-            sendTo(messageToSend, SEND_TYPE.WHATEVER);
-        } else {
-            sendTo(messageToSend, SEND_TYPE.RELIABLE);
-        }
-    }
-
-    //do some background work depending on the message type
-    private void sendTo(Pair<byte[], String> message, SEND_TYPE type) {
-        //if reliable, add it to the reliable queue and send it with unique ID
-        if(type == SEND_TYPE.RELIABLE) {
-            ReliableObj obj = new ReliableObj(message);
-            Pair<byte[], String> newMessage = obj.getMessage();
-            reliableQueue.produce(obj);
-            sendMessage(newMessage);
-
-        //if not, just send
-        } else {
-            sendMessage(message);
-        }
-    }
-
-    //resend reliable messages that haven't been acked
-    private void resendReliableMessages() {
-        //send if there's anything left
-        ReliableObj obj = reliableQueue.peek();
-        if(obj == null) {
-            return;
-        }
-
-        //resend every 20ms
-        long currentTime = System.currentTimeMillis();
-        if(currentTime - obj.getTimeStamp() >= 20) {
-            //resend if there's a message
-            obj = reliableQueue.consume();
-            if(obj == null) {
-                return;
-            }
-
-            //if the message has been sent 5 times and not acked, drop it
-            if(obj.getCount() == 0) {
-                return;
-            }
-
-            //resend and update new send time
-            obj.resend();
-            sendMessage(obj.getMessage());
-            reliableQueue.produce(obj);
-        }
+        protocol.send(messageToSend, this);
     }
 
     //send message to a particular IP
-    private void sendMessage(Pair<byte[], String> message) {
+    @Override
+    public void sendMessage(Message message) {
+        //encode message into the buffer
+        buffer.clear();
+        MessageCodec.encode(message, buffer);
+
         //send message to IP
-        byte[] buf = message.getValue().getBytes();
         try {
-            InetAddress address = InetAddress.getByAddress(message.getKey());
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, address, 8888);
+            InetSocketAddress address = addresses.getSocketAddress(message.getAddress());
+            packet.setData(buffer.array(), 0, buffer.position());
+            packet.setSocketAddress(address);
             socket.send(packet);
+            addresses.addBytesSent(message.getAddress(), buffer.position());
         } catch (Exception ex) {
             //swallow
             System.out.println("Cannot resolve host name");
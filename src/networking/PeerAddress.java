@@ -0,0 +1,80 @@
+package networking;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ *  Networking
+ *  Address of a player: IPv4 address and UDP port in 6 bytes (IP first, then port, big endian)
+ *  Still a byte[] like the IP alone was, so messages and player lists keep the same type,
+ *  and several games can run on one machine as long as each has its own port
+ */
+public class PeerAddress {
+    public static final int LENGTH = 6;
+
+    private PeerAddress() {
+    }
+
+    //address from IPv4 address and port
+    public static byte[] of(byte[] IP, int port) {
+        byte[] address = Arrays.copyOf(IP, LENGTH);
+        address[4] = (byte) (port >>> 8);
+        address[5] = (byte) port;
+        return address;
+    }
+
+    public static byte[] of(InetAddress IP, int port) {
+        return of(IP.getAddress(), port);
+    }
+
+    //IPv4 address part
+    public static byte[] getIP(byte[] address) {
+        return Arrays.copyOf(address, 4);
+    }
+
+    //port part
+    public static int getPort(byte[] address) {
+        return ((address[4] & 0xFF) << 8) | (address[5] & 0xFF);
+    }
+
+    //same IP and port
+    public static boolean equals(byte[] first, byte[] second) {
+        return first != null && second != null && Arrays.equals(first, second);
+    }
+
+    //parse "x.x.x.x" or "x.x.x.x:port" (NumberFormatException/IllegalArgumentException if it's neither)
+    public static byte[] parse(String text, int defaultPort) {
+        int port = defaultPort;
+        int colon = text.indexOf(':');
+        if(colon >= 0) {
+            port = Integer.parseInt(text.substring(colon + 1).trim());
+            text = text.substring(0, colon);
+        }
+        String[] split = text.trim().split("\\.");
+        if(split.length != 4 || port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Not an address: " + text);
+        }
+        byte[] IP = new byte[4];
+        for(int i = 0; i < 4; i++) {
+            IP[i] = (byte) Integer.parseInt(split[i]);
+        }
+        return of(IP, port);
+    }
+
+    //"x.x.x.x:port"
+    public static String toString(byte[] address) {
+        return (address[0] & 0xFF) + "." + (address[1] & 0xFF) + "." + (address[2] & 0xFF) + "." + (address[3] & 0xFF)
+                + ":" + getPort(address);
+    }
+
+    //IP and port packed in a long
+    static long toKey(byte[] address) {
+        long IP = ((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16) | ((address[2] & 0xFF) << 8) | (address[3] & 0xFF);
+        return ((IP & 0xFFFFFFFFL) << 16) | getPort(address);
+    }
+
+    //same, without allocating anything (hash code of an IPv4 InetAddress is its address)
+    static long toKey(InetAddress IP, int port) {
+        return ((IP.hashCode() & 0xFFFFFFFFL) << 16) | port;
+    }
+}
@@ -0,0 +1,84 @@
+package networking;
+
+import java.util.Arrays;
+
+/**
+ *  Networking
+ *  Peers by IP and port packed in a long (see PeerAddress), without a limit on how many
+ *  Open addressing on plain arrays, so looking up a peer for every packet doesn't box the key or allocate anything
+ */
+class PeerMap<V> {
+    private long[] keys = new long[16];
+    private Object[] values = new Object[16];
+    private int count = 0;
+
+    //value of a peer (null if unknown)
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int index = find(key);
+        return index >= 0 ? (V) values[index] : null;
+    }
+
+    //add a peer (or replace what it had)
+    void put(long key, V value) {
+        int index = find(key);
+        if(index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        //keep the table at most half full
+        if(2 * (count + 1) > keys.length) {
+            grow();
+        }
+        index = slot(key, keys.length);
+        while(values[index] != null) {
+            index = (index + 1) & (keys.length - 1);
+        }
+        keys[index] = key;
+        values[index] = value;
+        count++;
+    }
+
+    //number of peers
+    int size() {
+        return count;
+    }
+
+    //where a peer is in the table (-1 if unknown)
+    private int find(long key) {
+        int index = slot(key, keys.length);
+        while(values[index] != null) {
+            if(keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    //first slot to look at, peers on one machine only differ in the port so the bits are mixed first
+    private static int slot(long key, int length) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (length - 1);
+    }
+
+    //double the table and put every peer again
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[2 * oldKeys.length];
+        values = new Object[2 * oldValues.length];
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != null) {
+                int index = slot(oldKeys[i], keys.length);
+                while(values[index] != null) {
+                    index = (index + 1) & (keys.length - 1);
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+        Arrays.fill(oldValues, null);
+    }
+}
@@ -0,0 +1,99 @@
+package networking;
+
+/**
+ *  Networking
+ *  Object to hold message that needs to be sent reliably (one entry of a peer's in-flight table)
+ *  Resent at most MAX_RESENDS times, waiting twice as long after every timeout
+ *  (resending early because a newer message got acked doesn't double the wait)
+ */
+class ReliableObj {
+    static final int MAX_RESENDS = 8;
+
+    private Message message;
+    private ReliablePeer peer;
+    private long id;
+    private long timeStamp;
+    private long deadline;
+    private int resends = 0;
+    private int timeouts = 0;
+    private boolean acked = false;
+    private boolean lost = false;
+
+    //constructor, keeps its own copy of the message until it's acked
+    ReliableObj(Message message, ReliablePeer peer) {
+        this.message = new Message();
+        this.message.copyFrom(message);
+        this.peer = peer;
+    }
+
+    //give the message its sequence number before it's sent the first time
+    void setID(long id) {
+        this.id = id;
+        message.setID(id);
+    }
+
+    //update send time and time of the next resend
+    void send(RttEstimator rtt) {
+        timeStamp = System.currentTimeMillis();
+        deadline = timeStamp + rtt.getRTO(timeouts);
+        lost = false;
+    }
+
+    void resend(RttEstimator rtt) {
+        if(!lost) {
+            timeouts++;
+        }
+        resends++;
+        send(rtt);
+    }
+
+    //a message sent after it has been acked: resend it now
+    void setLost(long now) {
+        lost = true;
+        deadline = now;
+    }
+
+    boolean isLost() {
+        return lost;
+    }
+
+    //the peer has received it
+    void ack() {
+        acked = true;
+    }
+
+    //getters
+    //true if it can be resent again
+    boolean canResend() {
+        return resends < MAX_RESENDS;
+    }
+
+    //true if it has been sent more than once (can't tell which copy an ack is for)
+    boolean isResent() {
+        return resends > 0;
+    }
+
+    boolean isAcked() {
+        return acked;
+    }
+
+    long getTimeStamp() {
+        return timeStamp;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    long getID() {
+        return id;
+    }
+
+    ReliablePeer getPeer() {
+        return peer;
+    }
+
+    Message getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,222 @@
+package networking;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *  Networking
+ *  Reliability state shared with one other machine (both ways)
+ *  Sending: reliable messages get increasing sequence numbers, at most WINDOW of them are in flight
+ *  (the in-flight table is indexed by sequence number), the rest wait in the backlog
+ *  Receiving: remembers which sequence numbers arrived (cumulative ack + mask of the next ones)
+ *  so it can be acked with the next message going to that machine and resent copies are dropped
+ */
+class ReliablePeer {
+    //max messages in flight, same as the number of bits of the ack mask
+    static final int WINDOW = 64;
+
+    private static final Random RANDOM = new Random();
+
+    private final byte[] address;
+
+    //sending
+    private long nextSeq;
+    private long oldestSeq;
+    private final ReliableObj[] inFlight = new ReliableObj[WINDOW];
+    private final ArrayDeque<ReliableObj> backlog = new ArrayDeque<>();
+    private final RttEstimator rtt = new RttEstimator();
+
+    //highest sequence number acked and when the acked copy was sent
+    private long lastAcked = 0;
+    private long lastAckedSent = 0;
+
+    //receiving
+    private boolean started = false;
+    private long ack = 0;
+    private long ackMask = 0;
+    private boolean ackPending = false;
+    private boolean ackQueued = false;
+
+    //constructor, starts at a random sequence number so a restarted machine isn't mistaken for duplicates
+    ReliablePeer(byte[] address) {
+        this.address = address;
+        nextSeq = WINDOW + 1 + RANDOM.nextInt(1 << 20);
+        oldestSeq = nextSeq;
+    }
+
+    byte[] getAddress() {
+        return address;
+    }
+
+    //true if a new reliable message can be sent right away
+    boolean canSend() {
+        return backlog.isEmpty() && nextSeq - oldestSeq < WINDOW;
+    }
+
+    //give the message the next sequence number and put it in the in-flight table
+    void addInFlight(ReliableObj obj) {
+        obj.setID(nextSeq);
+        inFlight[(int) (nextSeq & (WINDOW - 1))] = obj;
+        nextSeq++;
+    }
+
+    //message waiting for room in the window
+    void addBacklog(ReliableObj obj) {
+        backlog.add(obj);
+    }
+
+    //next message of the backlog if there's room for it now, null otherwise
+    ReliableObj pollBacklog() {
+        if(backlog.isEmpty() || nextSeq - oldestSeq >= WINDOW) {
+            return null;
+        }
+        return backlog.poll();
+    }
+
+    //true if messages of the backlog can be sent now
+    boolean hasBacklogReady() {
+        return !backlog.isEmpty() && nextSeq - oldestSeq < WINDOW;
+    }
+
+    //in-flight message with that sequence number, null if it's not in flight
+    private ReliableObj getInFlight(long seq) {
+        if(seq < oldestSeq || seq >= nextSeq) {
+            return null;
+        }
+        ReliableObj obj = inFlight[(int) (seq & (WINDOW - 1))];
+        return obj != null && obj.getID() == seq ? obj : null;
+    }
+
+    //stop tracking a message (acked or dropped after too many retries)
+    void remove(ReliableObj obj) {
+        int index = (int) (obj.getID() & (WINDOW - 1));
+        if(inFlight[index] == obj) {
+            inFlight[index] = null;
+        }
+        while(oldestSeq < nextSeq && inFlight[(int) (oldestSeq & (WINDOW - 1))] == null) {
+            oldestSeq++;
+        }
+    }
+
+    //the other machine received everything up to ack and what's in the mask
+    void processAck(long ack, long ackMask, long now) {
+        if(ack == 0) {
+            return;
+        }
+        for(long seq = oldestSeq; seq <= ack && seq < nextSeq; seq++) {
+            acked(getInFlight(seq), now);
+        }
+        while(ackMask != 0) {
+            int bit = Long.numberOfTrailingZeros(ackMask);
+            acked(getInFlight(ack + 1 + bit), now);
+            ackMask &= ackMask - 1;
+        }
+    }
+
+    private void acked(ReliableObj obj, long now) {
+        if(obj == null) {
+            return;
+        }
+        //only messages sent once say how long a round trip takes
+        if(!obj.isResent()) {
+            rtt.addSample(now - obj.getTimeStamp());
+        }
+        if(obj.getID() > lastAcked) {
+            lastAcked = obj.getID();
+        }
+        if(obj.getTimeStamp() > lastAckedSent) {
+            lastAckedSent = obj.getTimeStamp();
+        }
+        obj.ack();
+        remove(obj);
+    }
+
+    //in-flight messages older than the last one acked and sent before it were lost on the way,
+    //no point waiting for their timeout (added to the list once per send)
+    void findLost(List<ReliableObj> lost, long now) {
+        for(long seq = oldestSeq; seq < lastAcked && seq < nextSeq; seq++) {
+            ReliableObj obj = getInFlight(seq);
+            if(obj != null && !obj.isLost() && obj.getTimeStamp() < lastAckedSent) {
+                obj.setLost(now);
+                lost.add(obj);
+            }
+        }
+    }
+
+    //round trip time to that machine
+    RttEstimator getRTT() {
+        return rtt;
+    }
+
+    //a reliable message arrived, remember it so it's acked, oldest is the oldest message the sender has in flight
+    //returns false if it had been received already (resent because the ack got lost)
+    boolean received(long seq, long oldest) {
+        ackPending = true;
+
+        //the sender never has more than a window in flight
+        oldest = Math.min(Math.max(oldest, seq - WINDOW + 1), seq);
+
+        //first message from that machine (or it restarted and started again lower):
+        //nothing older than its oldest message in flight will come
+        if(!started || seq < ack - 4 * WINDOW) {
+            started = true;
+            ack = oldest - 1;
+            ackMask = 0;
+        }
+
+        //everything before the oldest message in flight was received or given up on by the sender
+        if(oldest - 1 > ack) {
+            slide(oldest - 1 - ack);
+        }
+        if(seq <= ack) {
+            return false;
+        }
+
+        //too far ahead: the sender gave up on the older ones, slide the window
+        if(seq - ack > WINDOW) {
+            slide(seq - ack - WINDOW);
+        }
+        long bit = 1L << (seq - ack - 1);
+        if((ackMask & bit) != 0) {
+            return false;
+        }
+        ackMask |= bit;
+        slide(0);
+        return true;
+    }
+
+    //move the cumulative ack forward, then over everything received in a row after it
+    private void slide(long shift) {
+        ackMask = shift >= WINDOW ? 0 : ackMask >>> shift;
+        ack += shift;
+        while((ackMask & 1) != 0) {
+            ackMask >>>= 1;
+            ack++;
+        }
+    }
+
+    //true if something has been received and not acked yet
+    boolean isAckPending() {
+        return ackPending;
+    }
+
+    //true if an ack message is on the send queue already
+    boolean isAckQueued() {
+        return ackQueued;
+    }
+
+    void setAckQueued(boolean ackQueued) {
+        this.ackQueued = ackQueued;
+    }
+
+    //put the acks on a message going to that machine
+    //(and on a reliable message, the oldest one still in flight to that machine)
+    void attachAck(Message message) {
+        message.setAck(ack, ackMask);
+        if(message.getID() != 0) {
+            message.setOldest(oldestSeq);
+        }
+        ackPending = false;
+    }
+}
@@ -0,0 +1,76 @@
+package networking;
+
+/**
+ *  Networking
+ *  Round trip time to another machine, smoothed the Jacobson/Karels way (like TCP):
+ *  SRTT follows the samples slowly, RTTVAR follows how much they vary,
+ *  and the resend timeout is SRTT + 4 * RTTVAR
+ *  Samples come from acks of messages sent once and from the client's pings
+ */
+public class RttEstimator {
+    //resend timeout before the first sample, and its bounds (20ms keeps LAN recovery fast)
+    static final long INITIAL_RTO = 100;
+    static final long MIN_RTO = 20;
+    static final long MAX_RTO = 2000;
+
+    //gains of the smoothing (1/8 and 1/4)
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+
+    private double srtt = 0;
+    private double rttvar = 0;
+    private long samples = 0;
+
+    //add a measured round trip time in ms
+    public synchronized void addSample(long rtt) {
+        if(rtt < 0) {
+            return;
+        }
+        if(samples == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2.0;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        samples++;
+    }
+
+    //smoothed round trip time in ms (0 until the first sample)
+    public synchronized double getSRTT() {
+        return srtt;
+    }
+
+    //variation of the round trip time in ms
+    public synchronized double getRTTVAR() {
+        return rttvar;
+    }
+
+    //number of samples so far
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    //how long to wait for an ack before resending
+    public synchronized long getRTO() {
+        if(samples == 0) {
+            return INITIAL_RTO;
+        }
+        long rto = (long) Math.ceil(srtt + 4 * rttvar);
+        return Math.min(Math.max(rto, MIN_RTO), MAX_RTO);
+    }
+
+    //timeout of a message that has already been resent a few times: doubled every time
+    public long getRTO(int resends) {
+        long rto = getRTO();
+        for(int i = 0; i < resends && rto < MAX_RTO; i++) {
+            rto *= 2;
+        }
+        return Math.min(rto, MAX_RTO);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("srtt=%.1fms rttvar=%.1fms rto=%dms (%d samples)", srtt, rttvar, getRTO(), samples);
+    }
+}
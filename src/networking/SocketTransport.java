@@ -0,0 +1,82 @@
+package networking;
+
+import logic.MessageQueue;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+/**
+ *  Networking
+ *  Transport on a blocking DatagramSocket, with one thread to send and one to receive
+ */
+public class SocketTransport implements Transport {
+    //1 socket for both send and receive threads
+    private DatagramSocket socket;
+
+    private NetworkingProtocol protocol;
+    private AddressCache addresses = new AddressCache();
+    private MessageQueue<Message> sendQueue;
+
+    //threads
+    private NetworkingSend networkingSend;
+    private NetworkingRecv networkingRecv;
+
+    //constructor, open UDP socket on an address/port (port 0 = any free port)
+    public SocketTransport(InetSocketAddress bindAddress,
+                           MessageQueue<Message> sendQueue,
+                           MessageQueue<Message> serverRecvQueue,
+                           MessageQueue<Message> clientRecvQueue) {
+        this.sendQueue = sendQueue;
+        protocol = new NetworkingProtocol(sendQueue, serverRecvQueue, clientRecvQueue);
+        try {
+            socket = new DatagramSocket(bindAddress);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    //networking send and receive threads
+    @Override
+    public void start() {
+        networkingSend = new NetworkingSend(sendQueue, socket, protocol, addresses);
+        Thread sendThread = new Thread(networkingSend);
+        sendThread.start();
+
+        networkingRecv = new NetworkingRecv(socket, protocol, addresses);
+        Thread recvThread = new Thread(networkingRecv);
+        recvThread.start();
+    }
+
+    //stop both threads
+    @Override
+    public void stop() {
+        networkingRecv.stopThread();
+        networkingSend.stopThread();
+    }
+
+    //new messages and new peer addresses
+    @Override
+    public long getAllocationCount() {
+        return Message.getPool().getAllocationCount() + addresses.getAllocationCount();
+    }
+
+    @Override
+    public long getDuplicateCount() {
+        return protocol.getDuplicateCount();
+    }
+
+    @Override
+    public RttEstimator getRTT(byte[] address) {
+        return protocol.getRTT(address);
+    }
+
+    @Override
+    public long getBytesSent(byte[] address) {
+        return addresses.getBytesSent(address);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+}
@@ -0,0 +1,32 @@
+package networking;
+
+/**
+ *  Networking
+ *  How messages get on and off the wire
+ *  Takes messages from the send queue and puts received messages on the server/client queues
+ */
+public interface Transport {
+    //UDP port players listen on unless told otherwise
+    int PORT = 8888;
+
+    //start the networking thread(s)
+    void start();
+
+    //stop the networking thread(s) at the end
+    void stop();
+
+    //allocations made while receiving, stays the same once the game is running
+    long getAllocationCount();
+
+    //resent copies of reliable messages that were dropped instead of being delivered again
+    long getDuplicateCount();
+
+    //round trip time estimate to a machine (from acks and pings)
+    RttEstimator getRTT(byte[] address);
+
+    //bytes sent to a machine so far (acks and resends included)
+    long getBytesSent(byte[] address);
+
+    //UDP port actually listened on (the one picked by the system when asked for any port)
+    int getLocalPort();
+}